@@ -0,0 +1,86 @@
+package lv.ailab.lvtb.universalizer;
+
+import lv.ailab.lvtb.universalizer.transformator.FileTransformator;
+import lv.ailab.lvtb.universalizer.transformator.TransformationParams;
+import lv.ailab.lvtb.universalizer.utils.Logger;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathExpressionException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+
+/**
+ * Entry point for using LVTB to UD transformation as a library.
+ * Unlike LvtbToUdUI, converter has no static configuration: transformation
+ * parameters are given for each call, so several conversions with different
+ * parameters can be run in the same JVM, also concurrently. XPath engines are
+ * kept for each thread separately, the morphological analyzer is loaded once
+ * and shared between all threads (see AnalyzerWrapper).
+ * Logger keeps data about sentence currently being processed, thus each
+ * concurrent call must be given its own logger. Logger.makeBuffered() or
+ * Logger(PrintWriter, PrintWriter) can be used for loggers not backed by
+ * files. Converter prints nothing to the console, everything goes to the
+ * logger.
+ */
+public class LvtbToUdConverter
+{
+	/**
+	 * Parameters used for calls which do not provide their own.
+	 */
+	protected TransformationParams defaultParams;
+
+	public LvtbToUdConverter()
+	{
+		this(new TransformationParams());
+	}
+
+	public LvtbToUdConverter(TransformationParams defaultParams)
+	{
+		this.defaultParams = defaultParams;
+	}
+
+	/**
+	 * Transform a single knitted-in LVTB PML file to UD CoNLL-U, using
+	 * default parameters.
+	 * @param pmlIn		PML file contents; stream is not closed
+	 * @param conllOut	where to write CoNLL-U; stream is flushed, but not
+	 *                  closed; nothing is written, if all trees are omitted
+	 * @param listener	log for warnings and IDs
+	 * @return	transformator holding omission statistics for this file
+	 */
+	public FileTransformator convert(
+			InputStream pmlIn, Writer conllOut, Logger listener)
+	throws IOException, SAXException, ParserConfigurationException,
+			XPathExpressionException
+	{
+		return convert(pmlIn, conllOut, defaultParams, listener);
+	}
+
+	/**
+	 * Transform a single knitted-in LVTB PML file to UD CoNLL-U.
+	 * @param pmlIn		PML file contents; stream is not closed
+	 * @param conllOut	where to write CoNLL-U; stream is flushed, but not
+	 *                  closed; nothing is written, if all trees are omitted
+	 * @param params	transformation parameters; default ones are used, if
+	 *                  null
+	 * @param listener	log for warnings and IDs
+	 * @return	transformator holding omission statistics for this file
+	 */
+	public FileTransformator convert(
+			InputStream pmlIn, Writer conllOut, TransformationParams params,
+			Logger listener)
+	throws IOException, SAXException, ParserConfigurationException,
+			XPathExpressionException
+	{
+		if (listener == null)
+			throw new IllegalArgumentException("Logger must be provided!");
+		if (params == null) params = defaultParams;
+		FileTransformator ft = new FileTransformator(params);
+		ft.verbose = false;
+		ft.transform(PmlLoader.getTrees(pmlIn), listener);
+		ft.writeResult(conllOut, listener);
+		return ft;
+	}
+}
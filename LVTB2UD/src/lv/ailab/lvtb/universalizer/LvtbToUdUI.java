@@ -1,10 +1,12 @@
 package lv.ailab.lvtb.universalizer;
 
-import lv.ailab.lvtb.universalizer.transformator.FileTransformator;
 import lv.ailab.lvtb.universalizer.utils.Logger;
+import lv.ailab.lvtb.universalizer.transformator.SentenceCache;
 import lv.ailab.lvtb.universalizer.transformator.TransformationParams;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Overview
@@ -39,6 +41,24 @@ public class LvtbToUdUI
 	public static String logPath = "./data/log/";
 	public static String outputDataPath = "./data/conll-u/";
 	public static TransformationParams params = new TransformationParams();
+	/**
+	 * How many files each pipeline stage may get ahead of the next one.
+	 */
+	public static int queueSize = 2;
+	/**
+	 * File with transformation profiles for parameter-sweep mode, or null.
+	 */
+	public static String sweepPath = null;
+	/**
+	 * Folder for binary cache of loaded PML files, or null, if cache is not
+	 * used.
+	 */
+	public static String treeCachePath = null;
+	/**
+	 * Maximal number of sentences in the sentence transformation cache, 0 if
+	 * cache is not used.
+	 */
+	public static int sentenceCacheSize = 0;
 	public static Logger logger;
 
 	public static void main(String[] args) throws Exception
@@ -57,49 +77,64 @@ public class LvtbToUdUI
 			return;
 		}
 
-		File outFolder = new File(outputDataPath);
-		if (!outFolder.exists()) outFolder.mkdirs();
+		ArrayList<TransformationParams> profiles = new ArrayList<>();
+		ArrayList<String> outputPaths = new ArrayList<>();
+		if (sweepPath == null)
+		{
+			profiles.add(params);
+			outputPaths.add(outputDataPath);
+		}
+		else if (!readProfiles(sweepPath, profiles, outputPaths))
+		{
+			System.out.println(
+					"Oops! Profile file \"" + sweepPath + "\" cannot be read!");
+			return;
+		}
+		for (String outputPath : outputPaths)
+		{
+			File outFolder = new File(outputPath);
+			if (!outFolder.exists()) outFolder.mkdirs();
+		}
 		File logFolder = new File(logPath);
 		if (!logFolder.exists()) logFolder.mkdirs();
 		logger = new Logger(logFolder + "/status.log", logFolder + "/ids.log");
 		File[] listOfFiles = folder.listFiles();
+		TransformationPipeline pipeline = new TransformationPipeline(
+				profiles, logger, outputPaths, queueSize);
+		if (treeCachePath != null)
+		{
+			File cacheFolder = new File(treeCachePath);
+			if (!cacheFolder.exists()) cacheFolder.mkdirs();
+			pipeline.treeCachePath = treeCachePath;
+		}
+		if (sentenceCacheSize > 0 && profiles.size() < 2)
+			pipeline.sentenceCache = new SentenceCache(sentenceCacheSize);
+		pipeline.process(listOfFiles);
+		if (treeCachePath != null)
+			System.out.printf("%s file(s) loaded from tree cache.\n",
+					pipeline.treeCacheHits);
+		if (pipeline.sentenceCache != null)
+		{
+			SentenceCache cache = pipeline.sentenceCache;
+			System.out.printf(
+					"Sentence cache: %s hits, %s misses, hit rate %.1f%%.\n",
+					cache.hits, cache.misses, cache.getHitRate());
+			logger.printSentenceCacheStats(
+					cache.hits, cache.misses, cache.getHitRate());
+		}
 		int omittedTrees = 0;
 		int omittedFiles = 0;
-		for (File f : listOfFiles)
+		for (int i = 0; i < profiles.size(); i++)
 		{
-			String fileName = f.getName();
-			if (f.isDirectory() || f.getName().startsWith("~")) continue;
-			FileTransformator ft = new FileTransformator(params);
-			if (fileName.endsWith(".pml")) try
+			omittedTrees = omittedTrees + pipeline.omittedTrees[i];
+			omittedFiles = omittedFiles + pipeline.omittedFiles[i];
+			if (profiles.size() > 1)
 			{
-				System.out.printf("Processing file \"%s\", ", fileName);
-				logger.startFile(fileName);
-				//statusOut.printf("Processing file \"%s\", ", fileName);
-				String outPath = outputDataPath + fileName.substring(0, fileName.length() - 3) + "conllu";
-				ft.readAndTransform(f.getAbsolutePath(), logger);
-				boolean madeFile = ft.writeResult(outPath, logger);
-				if (madeFile) omittedTrees = omittedTrees + ft.omitted;
-				else
-				{
-					omittedTrees = omittedTrees + ft.all;
-					omittedFiles++;
-				}
-			} catch (Exception e)
-			{
-				System.out.printf("File failed with exception %s.\n", e.toString());
-				//statusOut.print("File failed with exception: ");
-				//e.printStackTrace(statusOut);
-				logger.finishFileWithException(e);
-				omittedTrees = omittedTrees + ft.all;
-				omittedFiles++;
-			}
-			else
-			{
-				System.out.println(
-						"Oops! Unexpected extension for file \"" + fileName + "\"!");
-				//statusOut.println(
-				//		"Oops! Unexpected extension for file \"" + fileName + "\"!");
-				logger.finishFileWithBadExt(fileName);
+				System.out.printf(
+						"Output \"%s\": %s files and at least %s trees was omited.\n",
+						outputPaths.get(i), pipeline.omittedFiles[i], pipeline.omittedTrees[i]);
+				logger.printProfileStats(outputPaths.get(i),
+						pipeline.omittedFiles[i], pipeline.omittedTrees[i]);
 			}
 		}
 		if (omittedFiles == 0 && omittedTrees == 0)
@@ -148,38 +183,6 @@ public class LvtbToUdUI
 
 				switch (key)
 				{
-					case "add_node_ids":
-						if (isBool)
-						{
-							params.ADD_NODE_IDS = value;
-							hasMandatory = true;
-						}
-						else return false;
-						break;
-					case "debug":
-						if (isBool) params.DEBUG = value;
-						else return false;
-						break;
-					case "warn_ellipsis":
-						if (isBool) params.WARN_ELLIPSIS = value;
-						else return false;
-						break;
-					case "warn_omissions":
-						if (isBool) params.WARN_OMISSIONS = value;
-						else return false;
-						break;
-					case "do_enhanced":
-						if (isBool) params.DO_ENHANCED = value;
-						else return false;
-						break;
-					case "induce_phrase_tags":
-						if (isBool) params.INDUCE_PHRASE_TAGS = value;
-						else return false;
-						break;
-					case "omit_whole_files":
-						if (isBool) params.OMIT_WHOLE_FILES = value;
-						else return false;
-						break;
 					case "input":
 						if (!isBool) inputDataPath = valueStr;
 						else return false;
@@ -192,18 +195,142 @@ public class LvtbToUdUI
 						if (!isBool) logPath = valueStr;
 						else return false;
 						break;
+					case "queue_size":
+						queueSize = Integer.parseInt(valueStr);
+						if (queueSize < 1) return false;
+						break;
+					case "sentence_cache":
+						sentenceCacheSize = Integer.parseInt(valueStr);
+						if (sentenceCacheSize < 0) return false;
+						break;
+					case "tree_cache":
+						if (!isBool) treeCachePath = arg.substring(arg.indexOf("=") + 1).trim();
+						else return false;
+						break;
+					case "sweep":
+						// File names are case sensitive on some systems.
+						if (!isBool) sweepPath = arg.substring(arg.indexOf("=") + 1).trim();
+						else return false;
+						break;
 					default:
-						return false;
+						if (!isBool || !setTransformationParam(params, key, value))
+							return false;
+						if (key.equals("add_node_ids")) hasMandatory = true;
 				}
 			}
 		}
-		catch (NullPointerException|IndexOutOfBoundsException e)
+		catch (NullPointerException|IndexOutOfBoundsException|NumberFormatException e)
 		{
 			return false;
 		}
 		return hasMandatory;
 	}
 
+	/**
+	 * Set a boolean transformation parameter by its command line key.
+	 * @return	false, if there is no such transformation parameter
+	 */
+	protected static boolean setTransformationParam(
+			TransformationParams target, String key, Boolean value)
+	{
+		switch (key)
+		{
+			case "add_node_ids":
+				target.ADD_NODE_IDS = value;
+				break;
+			case "debug":
+				target.DEBUG = value;
+				break;
+			case "warn_ellipsis":
+				target.WARN_ELLIPSIS = value;
+				break;
+			case "warn_omissions":
+				target.WARN_OMISSIONS = value;
+				break;
+			case "do_enhanced":
+				target.DO_ENHANCED = value;
+				break;
+			case "induce_phrase_tags":
+				target.INDUCE_PHRASE_TAGS = value;
+				break;
+			case "omit_whole_files":
+				target.OMIT_WHOLE_FILES = value;
+				break;
+			default:
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Read transformation profiles for parameter-sweep mode. Each non-empty
+	 * line not starting with # describes one profile in the same format as
+	 * command line parameters: mandatory output=folder followed by
+	 * transformation parameters differing from the ones given in the command
+	 * line.
+	 * @param profileFile	file to read
+	 * @param profiles		where to put profiles
+	 * @param outputPaths	where to put output folders
+	 * @return	if the file was successfully read
+	 */
+	protected static boolean readProfiles(
+			String profileFile, List<TransformationParams> profiles,
+			List<String> outputPaths)
+			throws IOException
+	{
+		File f = new File(profileFile);
+		if (!f.exists()) return false;
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(f), "UTF8")))
+		{
+			String line = in.readLine();
+			while (line != null)
+			{
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#"))
+				{
+					TransformationParams profile = new TransformationParams(params);
+					String output = null;
+					for (String arg : line.split("\\s+"))
+					{
+						if (!arg.contains("=")) return false;
+						String key = arg.substring(0, arg.indexOf("=")).trim().toLowerCase();
+						String valueStr = arg.substring(arg.indexOf("=") + 1).trim();
+						if (key.equals("output"))
+						{
+							output = valueStr;
+							if (!output.endsWith("/") && !output.endsWith("\\"))
+								output = output + "/";
+						}
+						else
+						{
+							Boolean value = null;
+							switch (valueStr.toLowerCase())
+							{
+								case "true":
+								case "1":
+									value = true;
+									break;
+								case "false":
+								case "0":
+									value = false;
+									break;
+								default: return false;
+							}
+							if (!setTransformationParam(profile, key, value))
+								return false;
+						}
+					}
+					if (output == null || output.equals("/")) return false;
+					profiles.add(profile);
+					outputPaths.add(output);
+				}
+				line = in.readLine();
+			}
+		}
+		return !profiles.isEmpty();
+	}
+
 	/**
 	 * Print information about parameters.
 	 */
@@ -228,6 +355,21 @@ public class LvtbToUdUI
 				"  input  [string, ./data/pml/     by default] - input data folder.\n" +
 				"  output [string, ./data/log/     by default] - log folder.\n" +
 				"  log    [string, ./data/conll-u/ by default] - output folder.\n" +
+				"  queue_size [int, 2 by default] - how many files parsing and transformation\n" +
+				"                                   may get ahead of writing.\n" +
+				"  sweep  [string, none by default] - file with transformation profiles; each\n" +
+				"                                   line gives output=folder and parameters\n" +
+				"                                   differing from the command line ones, e.g.\n" +
+				"                                   \"output=./data/no-ids/ add_node_ids=false\";\n" +
+				"                                   each file is loaded once and transformed\n" +
+				"                                   for all profiles.\n" +
+				"  tree_cache [string, none by default] - folder for binary copies of loaded\n" +
+				"                                   PML files; unchanged files are loaded from\n" +
+				"                                   there without XML parsing.\n" +
+				"  sentence_cache [int, 0 by default] - how many transformed sentences to\n" +
+				"                                   keep for reuse when an identical tree\n" +
+				"                                   occurs again; 0 turns the cache off; not\n" +
+				"                                   used together with sweep.\n" +
 				"Recognized boolean values (case insensitive):\n" +
 				"  true, 1   - for true\n" +
 				"  false, 0  - for false\n" +
@@ -13,6 +13,7 @@ import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Created on 2016-04-17.
@@ -34,6 +35,16 @@ public class PmlLoader
 		return doc;
 	}
 
+	public static Document loadPML(InputStream pmlStream)
+	throws ParserConfigurationException, IOException, SAXException
+	{
+		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+		DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+		Document doc = dBuilder.parse(pmlStream);
+		doc.getDocumentElement().normalize();
+		return doc;
+	}
+
 	public static NodeList getTrees(Document pmlDoc) throws XPathExpressionException
 	{
 		XPath xPath = XPathFactory.newInstance().newXPath();
@@ -47,4 +58,10 @@ public class PmlLoader
 	{
 		return getTrees(loadPML(path));
 	}
+	public static NodeList getTrees(InputStream pmlStream)
+	throws IOException, SAXException, ParserConfigurationException,
+			XPathExpressionException
+	{
+		return getTrees(loadPML(pmlStream));
+	}
 }
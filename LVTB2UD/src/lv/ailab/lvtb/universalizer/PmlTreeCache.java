@@ -0,0 +1,297 @@
+package lv.ailab.lvtb.universalizer;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Binary cache for loaded PML documents, so that unchanged files need not be
+ * parsed as XML again on every run. Cache file contains the whole DOM tree of
+ * the PML file (element names, attributes, texts and comments, thus also
+ * IDs, roles, ords, m-level fields and phrase info) in a compact form: all
+ * strings are stored once in a string table, nodes refer to them by index.
+ * Together with the tree, length and modification time of the source file is
+ * stored, cache is used only if these still match.
+ * Cache files are read memory-mapped and DOM is built directly from them,
+ * without any XML parsing. Resulting document looks the same as the one made
+ * by PmlLoader.loadPML().
+ */
+public class PmlTreeCache
+{
+	/**
+	 * "LVTB" in ASCII.
+	 */
+	protected static final int MAGIC = 0x4C565442;
+	/**
+	 * Increase this, if file format changes.
+	 */
+	protected static final int VERSION = 1;
+	/**
+	 * Magic, version, source file length and modification time.
+	 */
+	protected static final int HEADER_SIZE = 24;
+
+	protected static final byte ELEMENT = 1;
+	protected static final byte TEXT = 2;
+	protected static final byte CDATA = 3;
+	protected static final byte COMMENT = 4;
+	protected static final byte PROC_INSTR = 5;
+
+	/**
+	 * Load PML document from cache. Header is read without mapping the file,
+	 * so that an outdated cache file can be replaced afterwards (mapped files
+	 * can not be replaced on Windows).
+	 * @param pmlFile	source file, used to check if cache is up to date
+	 * @param cacheFile	cache file for this source file
+	 * @return	loaded document or null, if cache file does not exist, is
+	 * 			outdated or unreadable
+	 */
+	public static Document loadCached(File pmlFile, File cacheFile)
+	throws ParserConfigurationException
+	{
+		if (!cacheFile.isFile()) return null;
+		try (FileChannel channel = FileChannel.open(
+				cacheFile.toPath(), StandardOpenOption.READ))
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining())
+				if (channel.read(header) < 0) return null;
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) return null;
+			if (header.getLong() != pmlFile.length() || header.getLong() != pmlFile.lastModified())
+				return null;
+
+			MappedByteBuffer in = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			in.position(HEADER_SIZE);
+
+			// Each string takes at least one byte, so broken counts are
+			// caught before allocating.
+			String[] strings = new String[readCount(in)];
+			for (int i = 0; i < strings.length; i++)
+			{
+				byte[] bytes = new byte[readCount(in)];
+				in.get(bytes);
+				strings[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+
+			Document doc = DocumentBuilderFactory.newInstance()
+					.newDocumentBuilder().newDocument();
+			int childCount = readNumber(in);
+			for (int i = 0; i < childCount; i++)
+				doc.appendChild(readNode(in, strings, doc));
+			return doc;
+		} catch (IOException | BufferUnderflowException
+				| IndexOutOfBoundsException | IllegalArgumentException
+				| DOMException e)
+		{
+			// Broken cache is the same as no cache.
+			return null;
+		}
+	}
+
+	/**
+	 * Store PML document in the cache. Cache is written in a temporary file
+	 * first, so that interrupted writing does not leave broken cache behind.
+	 * @param pmlDoc	document loaded from pmlFile, not yet changed by
+	 *                  transformation
+	 * @param pmlFile	source file
+	 * @param cacheFile	where to write
+	 */
+	public static void save(Document pmlDoc, File pmlFile, File cacheFile)
+	throws IOException
+	{
+		HashMap<String, Integer> stringIds = new HashMap<>();
+		ArrayList<String> strings = new ArrayList<>();
+		ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream();
+		NodeList children = pmlDoc.getChildNodes();
+		ArrayList<Node> toWrite = new ArrayList<>();
+		for (int i = 0; i < children.getLength(); i++)
+			if (nodeType(children.item(i)) > 0) toWrite.add(children.item(i));
+		writeNumber(nodeBytes, toWrite.size());
+		for (Node n : toWrite)
+			writeNode(nodeBytes, n, stringIds, strings);
+
+		File tmpFile = new File(cacheFile.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmpFile))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(pmlFile.length());
+			out.writeLong(pmlFile.lastModified());
+			writeNumber(out, strings.size());
+			for (String s : strings)
+			{
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				writeNumber(out, bytes.length);
+				out.write(bytes);
+			}
+			nodeBytes.writeTo(out);
+		}
+		Files.move(tmpFile.toPath(), cacheFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Node type code used in the cache file, or 0 for nodes not stored (e.g.,
+	 * DOCTYPE).
+	 */
+	protected static byte nodeType(Node node)
+	{
+		switch (node.getNodeType())
+		{
+			case Node.ELEMENT_NODE: return ELEMENT;
+			case Node.TEXT_NODE: return TEXT;
+			case Node.CDATA_SECTION_NODE: return CDATA;
+			case Node.COMMENT_NODE: return COMMENT;
+			case Node.PROCESSING_INSTRUCTION_NODE: return PROC_INSTR;
+			default: return 0;
+		}
+	}
+
+	protected static void writeNode(
+			OutputStream out, Node node, HashMap<String, Integer> stringIds,
+			ArrayList<String> strings)
+	throws IOException
+	{
+		byte type = nodeType(node);
+		out.write(type);
+		switch (type)
+		{
+			case ELEMENT:
+				writeString(out, node.getNodeName(), stringIds, strings);
+				NamedNodeMap attrs = node.getAttributes();
+				writeNumber(out, attrs.getLength());
+				for (int i = 0; i < attrs.getLength(); i++)
+				{
+					writeString(out, attrs.item(i).getNodeName(), stringIds, strings);
+					writeString(out, attrs.item(i).getNodeValue(), stringIds, strings);
+				}
+				NodeList children = node.getChildNodes();
+				ArrayList<Node> toWrite = new ArrayList<>();
+				for (int i = 0; i < children.getLength(); i++)
+					if (nodeType(children.item(i)) > 0) toWrite.add(children.item(i));
+				writeNumber(out, toWrite.size());
+				for (Node child : toWrite)
+					writeNode(out, child, stringIds, strings);
+				break;
+			case PROC_INSTR:
+				writeString(out, ((ProcessingInstruction)node).getTarget(), stringIds, strings);
+				writeString(out, ((ProcessingInstruction)node).getData(), stringIds, strings);
+				break;
+			default:
+				writeString(out, node.getNodeValue(), stringIds, strings);
+		}
+	}
+
+	protected static Node readNode(ByteBuffer in, String[] strings, Document doc)
+	{
+		byte type = in.get();
+		switch (type)
+		{
+			case ELEMENT:
+				Element element = doc.createElement(strings[readNumber(in)]);
+				int attrCount = readNumber(in);
+				for (int i = 0; i < attrCount; i++)
+					element.setAttribute(strings[readNumber(in)], strings[readNumber(in)]);
+				int childCount = readNumber(in);
+				for (int i = 0; i < childCount; i++)
+					element.appendChild(readNode(in, strings, doc));
+				return element;
+			case TEXT:
+				return doc.createTextNode(strings[readNumber(in)]);
+			case CDATA:
+				return doc.createCDATASection(strings[readNumber(in)]);
+			case COMMENT:
+				return doc.createComment(strings[readNumber(in)]);
+			case PROC_INSTR:
+				return doc.createProcessingInstruction(
+						strings[readNumber(in)], strings[readNumber(in)]);
+			default:
+				throw new IllegalArgumentException("Unknown node type " + type + "!");
+		}
+	}
+
+	/**
+	 * Write index of the given string, add string to the table, if it is not
+	 * there yet.
+	 */
+	protected static void writeString(
+			OutputStream out, String s, HashMap<String, Integer> stringIds,
+			ArrayList<String> strings)
+	throws IOException
+	{
+		Integer id = stringIds.get(s);
+		if (id == null)
+		{
+			id = strings.size();
+			strings.add(s);
+			stringIds.put(s, id);
+		}
+		writeNumber(out, id);
+	}
+
+	/**
+	 * Write non-negative number using 7 bits per byte, highest bit marks that
+	 * more bytes follow. Most indices thus take one or two bytes.
+	 */
+	protected static void writeNumber(OutputStream out, int number)
+	throws IOException
+	{
+		while ((number & ~0x7F) != 0)
+		{
+			out.write((number & 0x7F) | 0x80);
+			number = number >>> 7;
+		}
+		out.write(number);
+	}
+
+	protected static int readNumber(ByteBuffer in)
+	{
+		int res = 0;
+		int shift = 0;
+		byte b;
+		do
+		{
+			if (shift > 28)
+				throw new IllegalArgumentException("Malformed number in cache file!");
+			b = in.get();
+			res = res | ((b & 0x7F) << shift);
+			shift = shift + 7;
+		} while ((b & 0x80) != 0);
+		if (res < 0)
+			throw new IllegalArgumentException("Malformed number in cache file!");
+		return res;
+	}
+
+	/**
+	 * Read count or length of something still to be read, thus not larger
+	 * than the rest of the cache file.
+	 */
+	protected static int readCount(ByteBuffer in)
+	{
+		int res = readNumber(in);
+		if (res > in.remaining())
+			throw new IllegalArgumentException("Malformed count in cache file!");
+		return res;
+	}
+}
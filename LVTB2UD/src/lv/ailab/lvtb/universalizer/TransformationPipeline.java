@@ -0,0 +1,401 @@
+package lv.ailab.lvtb.universalizer;
+
+import lv.ailab.lvtb.universalizer.transformator.FileTransformator;
+import lv.ailab.lvtb.universalizer.transformator.SentenceCache;
+import lv.ailab.lvtb.universalizer.transformator.SweepTransformator;
+import lv.ailab.lvtb.universalizer.transformator.TransformationParams;
+import lv.ailab.lvtb.universalizer.utils.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Transformation of a whole folder done as a three stage pipeline:
+ * XML parsing, sentence transformation and result writing/logging. Each stage
+ * has its own thread, stages are connected with bounded queues, so that disk
+ * I/O, XML parser and transformator can work simultaneously, but parser never
+ * gets more than a few files ahead of the writer.
+ * Transformation stage logs into a separate in-memory logger for each file,
+ * writing stage moves those logs into the main log in the original file
+ * order, thus the log looks the same as if files were processed one after
+ * another. Console progress messages are buffered and printed the same way.
+ * If several transformation profiles are given, each file is loaded once and
+ * transformed with SweepTransformator, results for each profile are written in
+ * its own output folder.
+ * If treeCachePath is set, parsing stage loads files with PmlTreeCache.
+ * If sentenceCache is set, it is used for single profile transformation.
+ */
+public class TransformationPipeline
+{
+	/**
+	 * Transformation parameters for each output.
+	 */
+	protected List<TransformationParams> profiles;
+	protected Logger logger;
+	/**
+	 * Output folder for each profile.
+	 */
+	protected List<String> outputDataPaths;
+	/**
+	 * Capacity of each queue between stages.
+	 */
+	protected int queueSize;
+
+	/**
+	 * Files loaded, but not transformed yet.
+	 */
+	protected BlockingQueue<FileJob> parsed;
+	/**
+	 * Files transformed, but not written yet.
+	 */
+	protected BlockingQueue<FileJob> transformed;
+
+	/**
+	 * Omission statistics for each profile.
+	 */
+	public int[] omittedTrees;
+	public int[] omittedFiles;
+
+	/**
+	 * Folder for binary PML tree cache, or null, if cache is not used.
+	 */
+	public String treeCachePath = null;
+	/**
+	 * How many files were loaded from the tree cache.
+	 */
+	public int treeCacheHits = 0;
+	/**
+	 * Cache for sentence transformation results shared by all files, or null.
+	 * Not used in parameter-sweep mode.
+	 */
+	public SentenceCache sentenceCache = null;
+	/**
+	 * Error (or unexpected exception) that stopped the parsing or the
+	 * transformation stage. Files after it are not processed.
+	 */
+	protected volatile Throwable fatal = null;
+
+	public TransformationPipeline(
+			TransformationParams params, Logger logger, String outputDataPath,
+			int queueSize)
+	{
+		this(Collections.singletonList(params), logger,
+				Collections.singletonList(outputDataPath), queueSize);
+	}
+
+	public TransformationPipeline(
+			List<TransformationParams> profiles, Logger logger,
+			List<String> outputDataPaths, int queueSize)
+	{
+		if (queueSize < 1)
+			throw new IllegalArgumentException(
+					"Illegal queue size: " + queueSize + "!");
+		if (profiles == null || profiles.isEmpty()
+				|| outputDataPaths == null || profiles.size() != outputDataPaths.size())
+			throw new IllegalArgumentException(
+					"Each transformation profile needs its own output folder!");
+		this.profiles = profiles;
+		this.logger = logger;
+		this.outputDataPaths = outputDataPaths;
+		this.queueSize = queueSize;
+		omittedTrees = new int[profiles.size()];
+		omittedFiles = new int[profiles.size()];
+		parsed = new ArrayBlockingQueue<>(queueSize);
+		transformed = new ArrayBlockingQueue<>(queueSize);
+	}
+
+	/**
+	 * Transform all given files. Parsing and transformation is done in
+	 * separate threads, writing - in the calling thread. Files are written and
+	 * logged in the given order. Omission statistics for each profile are
+	 * collected in omittedFiles and omittedTrees. If parsing or transformation
+	 * stage dies, files processed so far are written and its error is
+	 * rethrown.
+	 * @param files	files to process, directories and files starting with "~"
+	 *              are ignored
+	 */
+	public void process(File[] files) throws InterruptedException
+	{
+		ArrayList<File> toDo = new ArrayList<>();
+		for (File f : files)
+			if (!f.isDirectory() && !f.getName().startsWith("~")) toDo.add(f);
+
+		Thread parser = new Thread(() -> parseStage(toDo), "LVTB2UD-parser");
+		Thread transformer = new Thread(this::transformStage, "LVTB2UD-transformer");
+		// Writer is the one who finishes, if something goes wrong with it,
+		// other stages must not keep JVM alive.
+		parser.setDaemon(true);
+		transformer.setDaemon(true);
+		parser.start();
+		transformer.start();
+		writeStage();
+		if (fatal instanceof Error) throw (Error)fatal;
+		if (fatal instanceof RuntimeException) throw (RuntimeException)fatal;
+		if (fatal != null)
+			throw new IllegalStateException("Transformation stopped!", fatal);
+	}
+
+	/**
+	 * First stage: read and parse XML.
+	 */
+	protected void parseStage(ArrayList<File> files)
+	{
+		try
+		{
+			for (File f : files)
+			{
+				FileJob job = new FileJob(f);
+				if (profiles.size() > 1)
+				{
+					job.sweep = new SweepTransformator(profiles);
+					job.transformators = job.sweep.variants;
+				}
+				else
+				{
+					job.transformators = new FileTransformator[] {
+							new FileTransformator(profiles.get(0))};
+					job.transformators[0].sentenceCache = sentenceCache;
+				}
+				for (FileTransformator ft : job.transformators)
+					ft.console = job.console;
+				if (job.isPml) try
+				{
+					if (treeCachePath == null)
+						job.pmlTrees = PmlLoader.getTrees(f.getAbsolutePath());
+					else job.pmlTrees = PmlLoader.getTrees(loadWithCache(f));
+				} catch (Exception e)
+				{
+					job.failure = e;
+				}
+				parsed.put(job);
+			}
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		} catch (Throwable e)
+		{
+			// Stage ends, writer must still finish, but the run must fail.
+			if (fatal == null) fatal = e;
+		} finally
+		{
+			putEnd(parsed);
+		}
+	}
+
+	/**
+	 * Load file from the tree cache, if it is up to date, otherwise parse it
+	 * and renew the cache. Failing to write the cache does not stop the
+	 * processing of the file.
+	 */
+	protected Document loadWithCache(File pmlFile)
+	throws ParserConfigurationException, IOException, SAXException
+	{
+		File cacheFile = new File(treeCachePath, pmlFile.getName() + ".bin");
+		Document doc = PmlTreeCache.loadCached(pmlFile, cacheFile);
+		if (doc != null)
+		{
+			treeCacheHits++;
+			return doc;
+		}
+		doc = PmlLoader.loadPML(pmlFile.getAbsolutePath());
+		try
+		{
+			PmlTreeCache.save(doc, pmlFile, cacheFile);
+		} catch (IOException e)
+		{
+			System.out.printf("Tree cache for file \"%s\" could not be written: %s\n",
+					pmlFile.getName(), e.toString());
+		}
+		return doc;
+	}
+
+	/**
+	 * Second stage: transform sentences.
+	 */
+	protected void transformStage()
+	{
+		try
+		{
+			FileJob job = parsed.take();
+			while (job != FileJob.END)
+			{
+				if (job.isPml)
+				{
+					job.console.printf("Processing file \"%s\", ", job.fileName);
+					job.logger.startFile(job.fileName);
+					if (job.failure == null) try
+					{
+						if (job.sweep != null)
+							job.sweep.transform(job.pmlTrees, job.logger);
+						else job.transformators[0].transform(job.pmlTrees, job.logger);
+					} catch (Exception e)
+					{
+						job.failure = e;
+					}
+					// DOM is not needed anymore.
+					job.pmlTrees = null;
+				}
+				transformed.put(job);
+				job = parsed.take();
+			}
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		} catch (Throwable e)
+		{
+			// Stage ends, writer must still finish, but the run must fail.
+			if (fatal == null) fatal = e;
+		} finally
+		{
+			putEnd(transformed);
+		}
+	}
+
+	/**
+	 * Third stage: write results, move file logs to the main log, count
+	 * omissions.
+	 */
+	protected void writeStage() throws InterruptedException
+	{
+		FileJob job = transformed.take();
+		while (job != FileJob.END)
+		{
+			// Messages from the earlier stages go first, the rest are printed
+			// directly.
+			job.console.flush();
+			System.out.print(job.consoleBuffer.toString());
+			for (FileTransformator ft : job.transformators)
+				ft.console = System.out;
+			if (!job.isPml)
+			{
+				System.out.println(
+						"Oops! Unexpected extension for file \"" + job.fileName + "\"!");
+				job.logger.finishFileWithBadExt(job.fileName);
+			}
+			else if (job.failure != null)
+			{
+				System.out.printf("File failed with exception %s.\n", job.failure.toString());
+				job.logger.finishFileWithException(job.failure);
+				for (int i = 0; i < profiles.size(); i++)
+				{
+					omittedTrees[i] = omittedTrees[i] + job.transformators[i].all;
+					omittedFiles[i]++;
+				}
+			}
+			else for (int i = 0; i < profiles.size(); i++)
+			{
+				// File level messages are logged for the first profile only.
+				Logger fileLogger = i == 0 ? job.logger : Logger.makeBuffered();
+				FileTransformator ft = job.transformators[i];
+				try
+				{
+					String outPath = outputDataPaths.get(i) + job.fileName.substring(
+							0, job.fileName.length() - 3) + "conllu";
+					boolean madeFile = ft.writeResult(outPath, fileLogger);
+					if (madeFile) omittedTrees[i] = omittedTrees[i] + ft.omitted;
+					else
+					{
+						omittedTrees[i] = omittedTrees[i] + ft.all;
+						omittedFiles[i]++;
+					}
+				} catch (Exception e)
+				{
+					System.out.printf("File failed with exception %s.\n", e.toString());
+					job.logger.finishFileWithException(e);
+					omittedTrees[i] = omittedTrees[i] + ft.all;
+					omittedFiles[i]++;
+				}
+			}
+			logger.appendBuffered(job.logger);
+			logger.printQueueDepths(waiting(parsed), waiting(transformed));
+			job = transformed.take();
+		}
+	}
+
+	/**
+	 * Count files in the queue, not counting the end marker.
+	 */
+	protected static int waiting(BlockingQueue<FileJob> queue)
+	{
+		int res = 0;
+		for (FileJob job : queue) if (job != FileJob.END) res++;
+		return res;
+	}
+
+	/**
+	 * Signal the next stage that there will be no more files. This must get
+	 * through even if the current thread has been interrupted.
+	 */
+	protected static void putEnd(BlockingQueue<FileJob> queue)
+	{
+		boolean interrupted = Thread.interrupted();
+		while (true)
+		{
+			try
+			{
+				queue.put(FileJob.END);
+				break;
+			} catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Everything the pipeline stages know about a single file.
+	 */
+	protected static class FileJob
+	{
+		/**
+		 * Marker for the end of the file stream.
+		 */
+		protected static final FileJob END = new FileJob(null);
+
+		protected String fileName;
+		protected boolean isPml;
+		protected NodeList pmlTrees = null;
+		/**
+		 * Transformator for each profile.
+		 */
+		protected FileTransformator[] transformators;
+		/**
+		 * Shared transformation, if there is more than one profile.
+		 */
+		protected SweepTransformator sweep = null;
+		protected Logger logger;
+		/**
+		 * Progress messages printed before the file reaches the writing
+		 * stage.
+		 */
+		protected ByteArrayOutputStream consoleBuffer;
+		protected PrintStream console;
+		/**
+		 * Exception due to which this file could not be loaded or
+		 * transformed.
+		 */
+		protected Exception failure = null;
+
+		protected FileJob(File file)
+		{
+			if (file == null) return;
+			fileName = file.getName();
+			isPml = fileName.endsWith(".pml");
+			logger = Logger.makeBuffered();
+			consoleBuffer = new ByteArrayOutputStream();
+			console = new PrintStream(consoleBuffer);
+		}
+	}
+}
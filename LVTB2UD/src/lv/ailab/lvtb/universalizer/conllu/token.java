@@ -204,6 +204,17 @@ public class Token
 	 * Transforms token to a CoNLL-U format line. Newline is added.
 	 */
 	public String toConllU()
+	{
+		return toConllU(deps, true);
+	}
+
+	/**
+	 * Transforms token to a CoNLL-U format line, printing given enhanced
+	 * dependencies instead of the ones stored in the token. Newline is added.
+	 * @param depsToPrint	enhanced dependencies for the 9th column
+	 * @param printNodeIds	whether to keep LvtbNodeId in the 10th column
+	 */
+	public String toConllU(HashSet<EnhencedDep> depsToPrint, boolean printNodeIds)
 	{
 
 		StringBuilder res = new StringBuilder();
@@ -247,10 +258,10 @@ public class Token
 		else res.append(deprel);
 		// 9
 		res.append("\t");
-		if (deps == null || deps.size() < 1) res.append("_");
+		if (depsToPrint == null || depsToPrint.size() < 1) res.append("_");
 		else {
 
-			res.append(deps.stream().sorted(Comparator.comparingDouble(d -> d.sortValue))
+			res.append(depsToPrint.stream().sorted(Comparator.comparingDouble(d -> d.sortValue))
 					.map(EnhencedDep::toConllU)	.reduce((s1, s2) -> s1 + "|" + s2)
 					.orElse("_"));
 		}
@@ -261,6 +272,7 @@ public class Token
 		{
 			//res.append(misc);
 			res.append(misc.stream()
+					.filter(m -> printNodeIds || !m.startsWith("LvtbNodeId="))
 					.sorted(String.CASE_INSENSITIVE_ORDER)
 					.reduce((a, b) -> a + "|" + b).orElse("_"));
 		}
@@ -4,6 +4,7 @@ import lv.ailab.lvtb.universalizer.PmlLoader;
 import lv.ailab.lvtb.universalizer.pml.utils.NodeFieldUtils;
 import lv.ailab.lvtb.universalizer.utils.Logger;
 import lv.ailab.lvtb.universalizer.utils.XPathEngine;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
@@ -20,11 +21,26 @@ import java.util.regex.Pattern;
 // TODO  sentences after first error, if omittWholeOnError = true
 public class FileTransformator
 {
+	protected static final Pattern PARA_ID_PATTERN = Pattern.compile("a-(.*-p\\d+)s\\d+");
+
 	public StringBuilder processed;
 	protected TransformationParams params;
 	public int omitted;
 	private int added;
 	public int all;
+	/**
+	 * Whether to print progress messages (in console).
+	 */
+	public boolean verbose = true;
+	/**
+	 * Where to print progress messages.
+	 */
+	public PrintStream console = System.out;
+	/**
+	 * Cache for sentence transformation results, or null, if each sentence
+	 * must be transformed anew.
+	 */
+	public SentenceCache sentenceCache = null;
 
 	public FileTransformator(TransformationParams params)
 	{
@@ -44,8 +60,19 @@ public class FileTransformator
 			String inputPath, Logger logger)
 			throws SAXException, ParserConfigurationException, XPathExpressionException, IOException
 	{
-		NodeList pmlTrees = PmlLoader.getTrees(inputPath);
-		System.out.printf("%s trees. ", pmlTrees.getLength());
+		transform(PmlLoader.getTrees(inputPath), logger);
+	}
+
+	/**
+	 * Transform trees from a single, already loaded knitted LV TreeBank PML
+	 * file to UD.
+	 * @param pmlTrees	LM nodes of the trees to transform
+	 * @param logger	log for warnings and IDs
+	 */
+	public void transform(NodeList pmlTrees, Logger logger)
+			throws XPathExpressionException
+	{
+		if (verbose) console.printf("%s trees. ", pmlTrees.getLength());
 		logger.printFoundTreesCount(pmlTrees.getLength());
 		//warningsLog.printf("%s trees found...\n", pmlTrees.getLength());
 		String paragraphId = "";
@@ -57,7 +84,7 @@ public class FileTransformator
 			if (firstComment != null && firstComment.startsWith("AUTO"))
 			{
 				//warningsLog.println("File starts with \"AUTO\" comment, everything is ommited!");
-				System.out.println("File starts with \"AUTO\" comment, everything is ommited!");
+				if (verbose) console.println("File starts with \"AUTO\" comment, everything is ommited!");
 				logger.finishFileWithAUTO();
 				omitted = pmlTrees.getLength();
 				return;
@@ -65,7 +92,7 @@ public class FileTransformator
 			// Print out information about the start of the new document
 			processed.append("# newdoc");
 			String firstSentId = NodeFieldUtils.getId(pmlTrees.item(0));
-			Matcher idMatcher = Pattern.compile("a-(.*-p\\d+)s\\d+").matcher(firstSentId);
+			Matcher idMatcher = PARA_ID_PATTERN.matcher(firstSentId);
 			if (idMatcher.matches())
 			{
 				String dicIdForPrint = firstSentId.substring(firstSentId.indexOf("-") + 1,
@@ -104,7 +131,7 @@ public class FileTransformator
 			if (comment != null && comment.startsWith("FIXME"))
 			{
 				//warningsLog.println("A sentence with \"FIXME\" ommited.");
-				System.out.println("A sentence with \"FIXME\" ommited.");
+				if (verbose) console.println("A sentence with \"FIXME\" ommited.");
 				logger.finishSentenceWithFIXME();
 				omitted++;
 				continue;
@@ -114,22 +141,25 @@ public class FileTransformator
 			String conllTree = null;
 			try
 			{
-				conllTree = SentenceTransformEngine.treeToConll(
-						pmlTrees.item(i), params, logger);
+				conllTree = transformTree(pmlTrees.item(i), logger);
 			} catch (Exception e)
 			{
 				String treeId = NodeFieldUtils.getId(pmlTrees.item(i));
 				//warningsLog.printf("A sentence %s failed with an exception: ", treeId);
 				//e.printStackTrace(warningsLog);
-				System.out.printf("Transforming sentence %s completely failed! Check structure and try again.\n", treeId);
-				e.printStackTrace();
+				// Logger gets the stack trace anyway.
+				if (verbose)
+				{
+					console.printf("Transforming sentence %s completely failed! Check structure and try again.\n", treeId);
+					e.printStackTrace();
+				}
 				logger.finishSentenceWithException(treeId, e, false);
 			}
 
 			// Has a new paragraph started?
 			if (i > 0)
 			{
-				Matcher idMatcher = Pattern.compile("a-(.*-p\\d+)s\\d+").matcher(NodeFieldUtils.getId(pmlTrees.item(i)));
+				Matcher idMatcher = PARA_ID_PATTERN.matcher(NodeFieldUtils.getId(pmlTrees.item(i)));
 				if (idMatcher.matches())
 				{
 					String nextParaID = idMatcher.group(1);
@@ -153,6 +183,20 @@ public class FileTransformator
 		}
 	}
 
+	/**
+	 * Transform a single tree.
+	 * @param pmlTree	tree to transform
+	 * @param logger	log for warnings and IDs
+	 * @return 	UD tree in CoNLL-U format or null if tree could not be
+	 * 			transformed.
+	 */
+	protected String transformTree(Node pmlTree, Logger logger)
+	{
+		if (sentenceCache != null)
+			return sentenceCache.treeToConll(pmlTree, params, logger);
+		return SentenceTransformEngine.treeToConll(pmlTree, params, logger);
+	}
+
 	/**
 	 * Make new file and print out the transformation results. Do not make
 	 * an empty file or a file containing no sentences
@@ -163,6 +207,46 @@ public class FileTransformator
 	public boolean writeResult(
 			String conllOut, Logger logger)
 	throws IOException
+	{
+		if (!hasResult(logger)) return false;
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(conllOut), "UTF8"));
+		out.write(processed.toString());
+		out.flush();
+		out.close();
+		if (verbose) console.println("Finished.");
+		//warningsLog.println("Finished.");
+		logger.finishFileNormal(false);
+		return true;
+	}
+
+	/**
+	 * Print out the transformation results in the given stream. Do not print
+	 * anything, if there are no sentences to print.
+	 * @param conllOut    	where to print results; stream is flushed, but not
+	 *                      closed
+	 * @param logger 		log for warnings and ID mappings
+	 * @return	if anything was actually written
+	 */
+	public boolean writeResult(
+			Writer conllOut, Logger logger)
+	throws IOException
+	{
+		if (!hasResult(logger)) return false;
+		conllOut.write(processed.toString());
+		conllOut.flush();
+		if (verbose) console.println("Finished.");
+		logger.finishFileNormal(false);
+		return true;
+	}
+
+	/**
+	 * Check if there is something to write. If there is nothing, log the end
+	 * of file.
+	 * @param logger 		log for warnings and ID mappings
+	 * @return	false, if nothing must be written
+	 */
+	protected boolean hasResult(Logger logger)
 	{
 		if (omitted + added != all)
 		{
@@ -171,19 +255,11 @@ public class FileTransformator
 		}
 		if (params.OMIT_WHOLE_FILES && omitted > 0 || all - omitted < 1)
 		{
-			System.out.println("Finished - nothing to write.");
+			if (verbose) console.println("Finished - nothing to write.");
 			logger.finishFileNormal(true);
 			//warningsLog.println("Finished - nothing to write.");
 			return false;
 		}
-		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
-				new FileOutputStream(conllOut), "UTF8"));
-		out.write(processed.toString());
-		out.flush();
-		out.close();
-		System.out.println("Finished.");
-		//warningsLog.println("Finished.");
-		logger.finishFileNormal(false);
 		return true;
 	}
 }
@@ -19,6 +19,7 @@ import javax.xml.xpath.XPathExpressionException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 
 /**
@@ -77,6 +78,22 @@ public class Sentence
 	}
 
 	public String toConllU()
+	{
+		return toConllU(null, true);
+	}
+
+	/**
+	 * Get CoNLL-U representation of the sentence with some of the information
+	 * left out or replaced.
+	 * @param depsOverride	enhanced dependencies to print instead of the
+	 *                      ones stored in tokens (e.g. obtained with
+	 *                      snapshotDeps() before enhanced graph was made) or
+	 *                      null to print dependencies from tokens
+	 * @param printNodeIds	whether to keep LvtbNodeId in Misc column
+	 */
+	public String toConllU(
+			IdentityHashMap<Token, HashSet<EnhencedDep>> depsOverride,
+			boolean printNodeIds)
 	{
 		StringBuilder res = new StringBuilder();
 		res.append("# sent_id = ");
@@ -88,11 +105,27 @@ public class Sentence
 		res.append(text);
 		res.append("\n");
 		for (Token t : conll)
-			res.append(t.toConllU());
+			res.append(t.toConllU(
+					depsOverride == null ? t.deps : depsOverride.get(t),
+					printNodeIds));
 		res.append("\n");
 		return res.toString();
 	}
 
+	/**
+	 * Make a copy of the enhanced dependencies currently set for each token.
+	 * Dependency objects themselves are never changed after they are made,
+	 * so copying sets is enough.
+	 * @return	mapping from tokens to copies of their deps
+	 */
+	public IdentityHashMap<Token, HashSet<EnhencedDep>> snapshotDeps()
+	{
+		IdentityHashMap<Token, HashSet<EnhencedDep>> res = new IdentityHashMap<>();
+		for (Token t : conll)
+			res.put(t, t.deps == null ? null : new HashSet<>(t.deps));
+		return res;
+	}
+
 	public void populateCoordPartsUnder()
 	throws XPathExpressionException
 	{
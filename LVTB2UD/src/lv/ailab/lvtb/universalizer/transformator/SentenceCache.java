@@ -0,0 +1,325 @@
+package lv.ailab.lvtb.universalizer.transformator;
+
+import lv.ailab.lvtb.universalizer.utils.Logger;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cache for transformation results of single sentences, so that identical
+ * trees repeated in the corpus (boilerplate texts, reprinted news) are
+ * transformed only once.
+ * Cache key is a hash of the canonical form of the LM subtree together with
+ * transformation parameters. In the canonical form whitespace-only texts and
+ * XML comments are left out, attributes are sorted and each ID (id attributes
+ * and references like "m#m-doc-p1s1" in *.rf elements) is replaced by the
+ * number of its first occurrence in the tree, so trees differing only in
+ * their sentence and node IDs get the same key. Paragraph borders inside the
+ * sentence are read from m IDs, so for each token (in ord order, as
+ * MorphoTransformator takes them) the key also says if its m ID has the
+ * paragraph searching pattern and if its paragraph differs from the previous
+ * token's one. For each entry the CoNLL-U result
+ * and the status and ID mapping log text are stored; on a hit IDs of the
+ * cached tree are replaced with the IDs of the new tree in all of these.
+ * Paragraph and document comments are not part of the sentence result, they
+ * are made by FileTransformator as usual. Messages printed directly to
+ * System.out or System.err during the transformation are not repeated on a
+ * hit.
+ * Cache holds at most the given number of entries, least recently used ones
+ * are dropped first.
+ */
+public class SentenceCache
+{
+	/**
+	 * m IDs of this form have paragraph part, see MorphoTransformator.
+	 */
+	protected static final String M_ID_PATTERN = "m-.*-p\\d+s\\d+w\\d+";
+
+	protected int maxSize;
+	protected LinkedHashMap<String, Entry> entries;
+	public int hits = 0;
+	public int misses = 0;
+
+	public SentenceCache(int maxSize)
+	{
+		if (maxSize < 1)
+			throw new IllegalArgumentException(
+					"Illegal sentence cache size: " + maxSize + "!");
+		this.maxSize = maxSize;
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+			{
+				return size() > SentenceCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Same as SentenceTransformEngine.treeToConll(), but use cached result,
+	 * if the same tree has already been transformed with the same parameters.
+	 * @param pmlTree	tree to transform
+	 * @param params	transformation parameters
+	 * @param logger	log for warnings and IDs
+	 * @return 	UD tree in CoNLL-U format or null if tree could not be
+	 * 			transformed.
+	 */
+	public String treeToConll(Node pmlTree, TransformationParams params, Logger logger)
+	{
+		ArrayList<String> ids = new ArrayList<>();
+		String key = makeKey(pmlTree, params, ids);
+		Entry cached;
+		synchronized (this)
+		{
+			cached = entries.get(key);
+			if (cached != null) hits++;
+			else misses++;
+		}
+		if (cached != null)
+		{
+			Pattern idPattern = makeIdPattern(cached.ids);
+			HashMap<String, String> idMap = new HashMap<>();
+			for (int i = 0; i < ids.size(); i++)
+				idMap.put(cached.ids.get(i), ids.get(i));
+			logger.appendText(replaceIds(cached.status, idPattern, idMap),
+					replaceIds(cached.idMapping, idPattern, idMap));
+			return replaceIds(cached.result, idPattern, idMap);
+		}
+
+		Logger sentenceLog = Logger.makeBuffered();
+		String result = SentenceTransformEngine.treeToConll(pmlTree, params, sentenceLog);
+		String[] logText = sentenceLog.takeBuffered();
+		logger.appendText(logText[0], logText[1]);
+		synchronized (this)
+		{
+			entries.put(key, new Entry(result, logText[0], logText[1], ids));
+		}
+		return result;
+	}
+
+	/**
+	 * Hit rate in percents.
+	 */
+	public synchronized double getHitRate()
+	{
+		if (hits + misses == 0) return 0;
+		return 100.0 * hits / (hits + misses);
+	}
+
+	/**
+	 * Make a cache key and collect distinct id attribute values in document
+	 * order.
+	 */
+	protected static String makeKey(
+			Node pmlTree, TransformationParams params, List<String> ids)
+	{
+		StringBuilder canonical = new StringBuilder();
+		canonical.append(params.ADD_NODE_IDS).append(' ')
+				.append(params.DEBUG).append(' ')
+				.append(params.WARN_ELLIPSIS).append(' ')
+				.append(params.WARN_OMISSIONS).append(' ')
+				.append(params.DO_ENHANCED).append(' ')
+				.append(params.INDUCE_PHRASE_TAGS).append('\n');
+		addCanonical(pmlTree, canonical, ids);
+		addParagraphBorders(pmlTree, canonical);
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(
+					canonical.toString().getBytes(StandardCharsets.UTF_8));
+			return Base64.getEncoder().encodeToString(hash);
+		} catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform must have SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Append canonical form of the given subtree. Strings are prefixed with
+	 * their lengths, so that no content can imitate the structure.
+	 */
+	protected static void addCanonical(Node node, StringBuilder res, List<String> ids)
+	{
+		switch (node.getNodeType())
+		{
+			case Node.ELEMENT_NODE:
+				addString("<" + node.getNodeName(), res);
+				NamedNodeMap attrs = node.getAttributes();
+				TreeMap<String, String> sorted = new TreeMap<>();
+				for (int i = 0; i < attrs.getLength(); i++)
+					sorted.put(attrs.item(i).getNodeName(), attrs.item(i).getNodeValue());
+				for (String name : sorted.keySet())
+				{
+					addString("@" + name, res);
+					if (name.equals("id"))
+						addString("#" + idNumber(sorted.get(name), ids), res);
+					else addString(sorted.get(name), res);
+				}
+				NodeList children = node.getChildNodes();
+				for (int i = 0; i < children.getLength(); i++)
+					addCanonical(children.item(i), res, ids);
+				res.append('>');
+				break;
+			case Node.TEXT_NODE:
+			case Node.CDATA_SECTION_NODE:
+				String text = node.getNodeValue();
+				if (text.trim().isEmpty()) break;
+				if (node.getParentNode() != null
+						&& node.getParentNode().getNodeName().endsWith(".rf")
+						&& text.contains("#"))
+				{
+					String layer = text.substring(0, text.indexOf("#") + 1);
+					String ref = text.substring(text.indexOf("#") + 1);
+					addString("\"" + layer + "#" + idNumber(ref, ids), res);
+				}
+				else addString("\"" + text, res);
+				break;
+			default:
+				// Comments and others do not matter for the transformation.
+		}
+	}
+
+	/**
+	 * Append paragraph information for each token: 'm' or 'x' for m ID
+	 * matching or not matching the paragraph searching pattern, 'p' or '-'
+	 * for paragraph change before the token or its absence. Tokens are
+	 * found the same way as in MorphoTransformator.transformTokens().
+	 */
+	protected static void addParagraphBorders(Node pmlTree, StringBuilder res)
+	{
+		ArrayList<Integer> ords = new ArrayList<>();
+		HashMap<Integer, String> mIds = new HashMap<>();
+		collectTokens(pmlTree, ords, mIds);
+		Collections.sort(ords);
+		res.append('\n');
+		String prevParagraph = null;
+		for (int ord : ords)
+		{
+			if (ord < 1) continue;
+			String paragraph = mIds.get(ord);
+			boolean matches = paragraph.matches(M_ID_PATTERN);
+			if (matches)
+				paragraph = paragraph.substring(
+						paragraph.indexOf("-") + 1, paragraph.lastIndexOf("s"));
+			res.append(matches ? 'm' : 'x');
+			res.append(prevParagraph != null && !prevParagraph.equals(paragraph) ? 'p' : '-');
+			prevParagraph = paragraph;
+		}
+	}
+
+	/**
+	 * Collect ords of all descendant nodes having m.rf and ord, and for each
+	 * ord - the ID of the first m.rf of the first such node in document
+	 * order.
+	 */
+	protected static void collectTokens(
+			Node node, List<Integer> ords, Map<Integer, String> mIds)
+	{
+		NodeList children = node.getChildNodes();
+		Element mRf = null;
+		String ordText = null;
+		for (int i = 0; i < children.getLength(); i++)
+		{
+			Node child = children.item(i);
+			if (mRf == null && child.getNodeName().equals("m.rf")) mRf = (Element)child;
+			else if (ordText == null && child.getNodeName().equals("ord"))
+				ordText = child.getTextContent();
+		}
+		if (node.getNodeName().equals("node") && mRf != null && ordText != null
+				&& !ordText.trim().isEmpty()) try
+		{
+			int ord = Integer.parseInt(ordText.trim());
+			ords.add(ord);
+			mIds.putIfAbsent(ord, mRf.getAttribute("id"));
+		} catch (NumberFormatException e)
+		{
+			// Transformation fails the same way for both trees.
+		}
+		for (int i = 0; i < children.getLength(); i++)
+			if (children.item(i).getNodeType() == Node.ELEMENT_NODE)
+				collectTokens(children.item(i), ords, mIds);
+	}
+
+	/**
+	 * Get the number of the given ID, add it to the list, if it is not there
+	 * yet. Repeated ID gets the same number.
+	 */
+	protected static int idNumber(String id, List<String> ids)
+	{
+		int res = ids.indexOf(id);
+		if (res < 0)
+		{
+			res = ids.size();
+			ids.add(id);
+		}
+		return res;
+	}
+
+	protected static void addString(String s, StringBuilder res)
+	{
+		res.append(s.length()).append(':').append(s);
+	}
+
+	/**
+	 * Make pattern matching any of the given IDs, longer IDs first, so that an
+	 * ID is not matched as a prefix of another one.
+	 */
+	protected static Pattern makeIdPattern(List<String> ids)
+	{
+		ArrayList<String> sorted = new ArrayList<>(ids);
+		sorted.sort((a, b) -> b.length() - a.length());
+		StringBuilder regex = new StringBuilder();
+		for (String id : sorted)
+		{
+			if (id.isEmpty()) continue;
+			if (regex.length() > 0) regex.append('|');
+			regex.append(Pattern.quote(id));
+		}
+		if (regex.length() < 1) return null;
+		return Pattern.compile(regex.toString());
+	}
+
+	protected static String replaceIds(
+			String text, Pattern idPattern, Map<String, String> idMap)
+	{
+		if (text == null || idPattern == null) return text;
+		Matcher m = idPattern.matcher(text);
+		StringBuffer res = new StringBuffer();
+		while (m.find())
+			m.appendReplacement(res, Matcher.quoteReplacement(idMap.get(m.group())));
+		m.appendTail(res);
+		return res.toString();
+	}
+
+	/**
+	 * Transformation result and log texts for one tree.
+	 */
+	protected static class Entry
+	{
+		protected String result;
+		protected String status;
+		protected String idMapping;
+		/**
+		 * Distinct IDs of the transformed tree in document order.
+		 */
+		protected List<String> ids;
+
+		protected Entry(String result, String status, String idMapping, List<String> ids)
+		{
+			this.result = result;
+			this.status = status;
+			this.idMapping = idMapping;
+			this.ids = ids;
+		}
+	}
+}
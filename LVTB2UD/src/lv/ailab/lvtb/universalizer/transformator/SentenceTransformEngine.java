@@ -1,11 +1,16 @@
 package lv.ailab.lvtb.universalizer.transformator;
 
+import lv.ailab.lvtb.universalizer.conllu.EnhencedDep;
+import lv.ailab.lvtb.universalizer.conllu.Token;
 import lv.ailab.lvtb.universalizer.transformator.morpho.MorphoTransformator;
 import lv.ailab.lvtb.universalizer.transformator.syntax.*;
 import lv.ailab.lvtb.universalizer.utils.Logger;
 import org.w3c.dom.Node;
 
 import javax.xml.xpath.XPathExpressionException;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 
 /**
  * Logic for transforming LVTB sentence annotations to UD.
@@ -48,6 +53,21 @@ public class SentenceTransformEngine
 	 * 									algorithmical error.
 	 */
 	public boolean transform() throws XPathExpressionException
+	{
+		transformBase();
+		if (params.DO_ENHANCED) transformEnhanced();
+		logger.finishSentenceNormal(s.hasFailed);
+		return !s.hasFailed;
+	}
+
+	/**
+	 * Create CoNLL-U token table and fill in morphology and base dependency
+	 * tree.
+	 * @throws XPathExpressionException	unsuccessfull XPathevaluation (anywhere
+	 * 									in the PML tree) most probably due to
+	 * 									algorithmical error.
+	 */
+	protected void transformBase() throws XPathExpressionException
 	{
 		if (params.DEBUG) System.out.printf("Working on sentence \"%s\".\n", s.id);
 
@@ -60,13 +80,19 @@ public class SentenceTransformEngine
 			System.out.printf("Sentence \"%s\" has non-trivial ellipsis.\n", s.id);
 		syntTransf.transformBaseSyntax();
 		logger.flush();
-		if (params.DO_ENHANCED)
-		{
-			enhSyntTransf.transformEnhancedSyntax();
-			logger.flush();
-		}
-		logger.finishSentenceNormal(s.hasFailed);
-		return !s.hasFailed;
+	}
+
+	/**
+	 * Add enhanced dependency graph to the CoNLL-U table made by
+	 * transformBase().
+	 * @throws XPathExpressionException	unsuccessfull XPathevaluation (anywhere
+	 * 									in the PML tree) most probably due to
+	 * 									algorithmical error.
+	 */
+	protected void transformEnhanced() throws XPathExpressionException
+	{
+		enhSyntTransf.transformEnhancedSyntax();
+		logger.flush();
 	}
 
 	/**
@@ -109,4 +135,73 @@ public class SentenceTransformEngine
 		return null;
 	}
 
+	/**
+	 * Transform given PML tree once and get the CoNLL-U representations for
+	 * several parameter sets differing only in ADD_NODE_IDS and DO_ENHANCED.
+	 * Tree is transformed with node IDs and enhanced dependencies, if at least
+	 * one of the variants needs them, then those are left out for variants
+	 * which do not need them. If enhanced graph can not be made, only the
+	 * variants without enhanced graph get the tree.
+	 * @param pmlTree	tree to transform
+	 * @param params	transformation parameters used for the shared
+	 *                  transformation (ADD_NODE_IDS and DO_ENHANCED must be
+	 *                  set, if any variant needs them)
+	 * @param variants	parameters for each required output
+	 * @return 	UD tree in CoNLL-U format for each variant, null for variants
+	 * 			for which tree could not be transformed.
+	 */
+	public static String[] treeToConllVariants(
+			Node pmlTree, TransformationParams params,
+			List<TransformationParams> variants, Logger logger)
+	{
+		String[] res = new String[variants.size()];
+		String id ="<unknown>";
+		try {
+			SentenceTransformEngine t = new SentenceTransformEngine(pmlTree, params, logger);
+			id = t.s.id;
+			t.transformBase();
+			if (t.s.hasFailed)
+			{
+				logger.finishSentenceNormal(true);
+				if (params.WARN_OMISSIONS) logger.finishSentenceWithOmit(id);
+				return res;
+			}
+			IdentityHashMap<Token, HashSet<EnhencedDep>> baseDeps = t.s.snapshotDeps();
+			boolean enhancedFailed = false;
+			if (params.DO_ENHANCED) try
+			{
+				t.transformEnhanced();
+			} catch (NullPointerException|IllegalArgumentException
+					|XPathExpressionException|IllegalStateException e)
+			{
+				System.err.println("Making enhanced graph for sentence " + id + " failed!");
+				e.printStackTrace();
+				logger.warnForEnhancedException(id, e);
+				enhancedFailed = true;
+			}
+			boolean printed = false;
+			for (int i = 0; i < variants.size(); i++)
+			{
+				TransformationParams variant = variants.get(i);
+				if (variant.DO_ENHANCED && enhancedFailed) continue;
+				res[i] = t.s.toConllU(variant.DO_ENHANCED ? null : baseDeps,
+						variant.ADD_NODE_IDS);
+				printed = true;
+			}
+			// ID mappings are kept, if at least one variant got the tree.
+			logger.finishSentenceNormal(!printed);
+		} catch (NullPointerException|IllegalArgumentException e)
+		{
+			System.err.println("Transforming sentence " + id + " completely failed! Check structure and try again.");
+			e.printStackTrace();
+			logger.finishSentenceWithException(id, e, false);
+		}
+		catch (XPathExpressionException|IllegalStateException e)
+		{
+			System.err.println("Transforming sentence " + id + " completely failed! Might be algorithmic error.");
+			e.printStackTrace();
+			logger.finishSentenceWithException(id, e, false);
+		}
+		return res;
+	}
 }
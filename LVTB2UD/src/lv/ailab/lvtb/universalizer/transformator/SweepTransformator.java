@@ -0,0 +1,175 @@
+package lv.ailab.lvtb.universalizer.transformator;
+
+import lv.ailab.lvtb.universalizer.PmlLoader;
+import lv.ailab.lvtb.universalizer.utils.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.xpath.XPathExpressionException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Transformation wrapper for a single file, producing several outputs with
+ * different transformation parameters from one loaded PML file.
+ * Variants agreeing on INDUCE_PHRASE_TAGS share the whole sentence
+ * transformation: each tree is transformed once with node IDs and enhanced
+ * graph, if any of the variants needs them, and these are left out when
+ * printing variants which do not need them. Logging flags for the shared
+ * transformation are merged. File level settings (OMIT_WHOLE_FILES) are
+ * applied for each variant separately.
+ * Transformation with INDUCE_PHRASE_TAGS modifies the PML tree, so every group
+ * but the first one works on its own copy of the PML document.
+ */
+public class SweepTransformator
+{
+	/**
+	 * Transformator for each variant, holding its results and statistics.
+	 */
+	public FileTransformator[] variants;
+	protected List<TransformationParams> profiles;
+	/**
+	 * For each variant - index of the group of variants sharing the
+	 * transformation.
+	 */
+	protected int[] groupOf;
+	/**
+	 * For each group - parameters used for the shared transformation.
+	 */
+	protected ArrayList<TransformationParams> groupParams = new ArrayList<>();
+	/**
+	 * For each group - indices of variants in this group.
+	 */
+	protected ArrayList<ArrayList<Integer>> groupMembers = new ArrayList<>();
+	/**
+	 * For each group - shared transformation results for the current file,
+	 * CoNLL-U strings for every group member.
+	 */
+	protected ArrayList<IdentityHashMap<Node, String[]>> groupResults = new ArrayList<>();
+	/**
+	 * For each group - trees of the current file to be transformed by this
+	 * group.
+	 */
+	protected ArrayList<NodeList> groupTrees = new ArrayList<>();
+	/**
+	 * For each tree of the current file - its index in the file.
+	 */
+	protected IdentityHashMap<Node, Integer> treeIndices = new IdentityHashMap<>();
+	/**
+	 * Log for the shared transformations of the current file.
+	 */
+	protected Logger logger;
+
+	public SweepTransformator(List<TransformationParams> profiles)
+	{
+		if (profiles == null || profiles.isEmpty())
+			throw new IllegalArgumentException("No transformation profiles given!");
+		this.profiles = profiles;
+		variants = new FileTransformator[profiles.size()];
+		groupOf = new int[profiles.size()];
+		for (int i = 0; i < profiles.size(); i++)
+		{
+			TransformationParams profile = profiles.get(i);
+			variants[i] = new VariantTransformator(profile, i);
+			if (i > 0) variants[i].verbose = false;
+
+			int group = 0;
+			while (group < groupParams.size() && !groupParams.get(group)
+					.INDUCE_PHRASE_TAGS.equals(profile.INDUCE_PHRASE_TAGS))
+				group++;
+			if (group == groupParams.size())
+			{
+				groupParams.add(new TransformationParams(profile));
+				groupMembers.add(new ArrayList<>());
+				groupResults.add(new IdentityHashMap<>());
+			}
+			TransformationParams shared = groupParams.get(group);
+			shared.ADD_NODE_IDS = shared.ADD_NODE_IDS || profile.ADD_NODE_IDS;
+			shared.DO_ENHANCED = shared.DO_ENHANCED || profile.DO_ENHANCED;
+			shared.DEBUG = shared.DEBUG || profile.DEBUG;
+			shared.WARN_ELLIPSIS = shared.WARN_ELLIPSIS || profile.WARN_ELLIPSIS;
+			shared.WARN_OMISSIONS = shared.WARN_OMISSIONS || profile.WARN_OMISSIONS;
+			groupMembers.get(group).add(i);
+			groupOf[i] = group;
+		}
+	}
+
+	/**
+	 * Transform trees from a single, already loaded knitted LV TreeBank PML
+	 * file for all variants. File level messages are logged only for the
+	 * first variant, sentence level messages - once for each shared
+	 * transformation.
+	 * @param pmlTrees	LM nodes of the trees to transform
+	 * @param logger	log for warnings and IDs
+	 */
+	public void transform(NodeList pmlTrees, Logger logger)
+			throws XPathExpressionException
+	{
+		this.logger = logger;
+		try
+		{
+			for (int i = 0; i < pmlTrees.getLength(); i++)
+				treeIndices.put(pmlTrees.item(i), i);
+			groupTrees.add(pmlTrees);
+			for (int group = 1; group < groupParams.size(); group++)
+			{
+				if (pmlTrees.getLength() < 1) groupTrees.add(pmlTrees);
+				else groupTrees.add(PmlLoader.getTrees((Document)pmlTrees.item(0)
+						.getOwnerDocument().cloneNode(true)));
+			}
+			for (int i = 0; i < variants.length; i++)
+				variants[i].transform(pmlTrees, i == 0 ? logger : Logger.makeBuffered());
+		} finally
+		{
+			for (IdentityHashMap<Node, String[]> results : groupResults)
+				results.clear();
+			groupTrees.clear();
+			treeIndices.clear();
+			this.logger = null;
+		}
+	}
+
+	/**
+	 * Get the transformation result for the given tree and variant, do the
+	 * shared transformation, if it is not done yet.
+	 */
+	protected String getResult(Node pmlTree, int variant)
+	{
+		int group = groupOf[variant];
+		ArrayList<Integer> members = groupMembers.get(group);
+		String[] treeResults = groupResults.get(group).get(pmlTree);
+		if (treeResults == null)
+		{
+			ArrayList<TransformationParams> memberParams = new ArrayList<>();
+			for (int member : members) memberParams.add(profiles.get(member));
+			Node groupTree = groupTrees.get(group).item(treeIndices.get(pmlTree));
+			treeResults = SentenceTransformEngine.treeToConllVariants(
+					groupTree, groupParams.get(group), memberParams, logger);
+			groupResults.get(group).put(pmlTree, treeResults);
+		}
+		return treeResults[members.indexOf(variant)];
+	}
+
+	/**
+	 * File transformator for a single variant, taking tree transformation
+	 * results from the shared transformation.
+	 */
+	protected class VariantTransformator extends FileTransformator
+	{
+		protected int variant;
+
+		protected VariantTransformator(TransformationParams params, int variant)
+		{
+			super(params);
+			this.variant = variant;
+		}
+
+		@Override
+		protected String transformTree(Node pmlTree, Logger logger)
+		{
+			return getResult(pmlTree, variant);
+		}
+	}
+}
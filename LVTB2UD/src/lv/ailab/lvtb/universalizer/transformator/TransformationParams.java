@@ -43,4 +43,18 @@ public class TransformationParams
 	 * Get default parameter set.
 	 */
 	public TransformationParams(){};
+
+	/**
+	 * Get a copy of the given parameter set.
+	 */
+	public TransformationParams(TransformationParams other)
+	{
+		ADD_NODE_IDS = other.ADD_NODE_IDS;
+		DEBUG = other.DEBUG;
+		WARN_ELLIPSIS = other.WARN_ELLIPSIS;
+		WARN_OMISSIONS = other.WARN_OMISSIONS;
+		DO_ENHANCED = other.DO_ENHANCED;
+		INDUCE_PHRASE_TAGS = other.INDUCE_PHRASE_TAGS;
+		OMIT_WHOLE_FILES = other.OMIT_WHOLE_FILES;
+	}
 }
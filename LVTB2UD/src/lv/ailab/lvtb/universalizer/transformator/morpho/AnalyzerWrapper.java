@@ -6,23 +6,44 @@ import lv.semti.morphology.analyzer.Word;
 import lv.semti.morphology.analyzer.Wordform;
 import lv.semti.morphology.attributes.AttributeNames;
 
+/**
+ * Single morphological analyzer shared by all transformations. Loading the
+ * lexicon is expensive, thus it is loaded once per JVM, but analyzer is not
+ * known to be thread safe, so all the analysis is done while holding the
+ * analyzer's lock.
+ */
 public class AnalyzerWrapper
 {
 	protected static Analyzer morphoEngineSing;
 
-	public static Analyzer getMorpho() throws Exception
+	public static synchronized Analyzer getMorpho() throws Exception
 	{
-		if (morphoEngineSing == null) morphoEngineSing = new Analyzer();
-		morphoEngineSing.enableGuessing = true;
-		morphoEngineSing.enableAllGuesses = true;
+		if (morphoEngineSing == null)
+		{
+			morphoEngineSing = new Analyzer();
+			morphoEngineSing.enableGuessing = true;
+			morphoEngineSing.enableAllGuesses = true;
+		}
 		return morphoEngineSing;
 	}
 
+	/**
+	 * Analyze given wordform with the shared analyzer.
+	 */
+	protected static Word analyze(String form) throws Exception
+	{
+		Analyzer morpho = getMorpho();
+		synchronized (morpho)
+		{
+			return morpho.analyze(form);
+		}
+	}
+
 	public static Wordform getAVPairs(String form, String postag, Logger logger)
 	{
 		try
 		{
-			Word analysis = getMorpho().analyze(form);
+			Word analysis = analyze(form);
 			String tag = postag.contains("_") ? postag.substring(0, postag.indexOf('_')) : postag;
 			return analysis.getMatchingWordform(tag, false);
 			//TODO: Kad Pēteris partaisīs iespēju izvadīt complain uz citu plūsmu, ieslēgt atpakaļ.
@@ -39,7 +60,7 @@ public class AnalyzerWrapper
 	{
 		try
 		{
-			Word w = getMorpho().analyze(form);
+			Word w = analyze(form);
 			Wordform wf = w.getMatchingWordform(postag, false);
 			return wf.getValue(AttributeNames.i_Lemma);
 			//TODO: Kad Pēteris partaisīs iespēju izvadīt complain uz citu plūsmu, ieslēgt atpakaļ.
@@ -2,6 +2,7 @@ package lv.ailab.lvtb.universalizer.utils;
 
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -23,6 +24,13 @@ public class Logger
 	protected HashSet<String> warnings;
 	protected ArrayList<String> idMappingDesc;
 
+	/**
+	 * In-memory targets for statusOut and idMappingOut, if this logger is
+	 * made with makeBuffered(), null otherwise.
+	 */
+	protected StringWriter statusBuffer = null;
+	protected StringWriter idMappingBuffer = null;
+
 	public Logger(String statusOutPath, String logOutPath)
 			throws FileNotFoundException, UnsupportedEncodingException
 	{
@@ -40,6 +48,60 @@ public class Logger
 		warnings = new HashSet<>();
 		idMappingDesc = new ArrayList<>();
 	}
+
+	/**
+	 * Make a logger, which accumulates everything in memory, so that its
+	 * contents later can be appended to some other log with appendBuffered().
+	 * Used when file logging is done on a different thread than writing to
+	 * the log files.
+	 */
+	public static Logger makeBuffered()
+	{
+		StringWriter statusBuf = new StringWriter();
+		StringWriter idMappingBuf = new StringWriter();
+		Logger res = new Logger(
+				new PrintWriter(statusBuf), new PrintWriter(idMappingBuf));
+		res.statusBuffer = statusBuf;
+		res.idMappingBuffer = idMappingBuf;
+		return res;
+	}
+
+	/**
+	 * Move everything accumulated by a logger obtained from makeBuffered() to
+	 * this log.
+	 */
+	public void appendBuffered(Logger buffered)
+	{
+		String[] text = buffered.takeBuffered();
+		appendText(text[0], text[1]);
+	}
+
+	/**
+	 * Take everything accumulated by a logger obtained from makeBuffered(),
+	 * leaving it empty.
+	 * @return	status log text and ID mapping log text
+	 */
+	public String[] takeBuffered()
+	{
+		if (statusBuffer == null)
+			throw new IllegalArgumentException(
+					"Only loggers made with Logger.makeBuffered() can be taken from!");
+		flush();
+		String[] res = {statusBuffer.toString(), idMappingBuffer.toString()};
+		statusBuffer.getBuffer().setLength(0);
+		idMappingBuffer.getBuffer().setLength(0);
+		return res;
+	}
+
+	/**
+	 * Print already formatted log text, e.g., obtained from takeBuffered().
+	 */
+	public void appendText(String status, String idMapping)
+	{
+		statusOut.print(status);
+		if (idMappingOut != null) idMappingOut.print(idMapping);
+		flush();
+	}
 	public void startFile(String fileName)
 	{
 		statusOut.printf("Processing file \"%s\", ", fileName);
@@ -100,6 +162,15 @@ public class Logger
 		e.printStackTrace(statusOut);
 		finishSentenceNormal(true);
 	}
+	/**
+	 * Enhanced graph failed, but the sentence is not finished, as the base
+	 * tree may still be printed.
+	 */
+	public void warnForEnhancedException(String treeId, Exception e)
+	{
+		statusOut.printf("Making enhanced graph for sentence %s failed!\n", treeId);
+		e.printStackTrace(statusOut);
+	}
 	public void finishSentenceWithFIXME()
 	{
 		statusOut.printf("A sentence with \"FIXME\" ommited.\n");
@@ -111,6 +182,13 @@ public class Logger
 		finishSentenceNormal(true);
 	}
 
+	public void printQueueDepths(int parsedWaiting, int transformedWaiting)
+	{
+		statusOut.printf(
+				"Queues: %s parsed file(s) waiting for transformation, %s transformed file(s) waiting for writing.\n",
+				parsedWaiting, transformedWaiting);
+	}
+
 	public void warnForAnalyzerException(Exception e)
 	{
 		statusOut.printf("Analyzer failed, probably while reading lexicon: %s\n", e.getMessage());
@@ -129,6 +207,20 @@ public class Logger
 				"%s#%s\t%s", sentenceID, tokFirstCol, lvtbNodeId));
 	}
 
+	public void printProfileStats(String outputPath, int omittedFiles, int omittedTrees)
+	{
+		statusOut.printf(
+				"Output \"%s\": %s files and at least %s trees was omited.\n",
+				outputPath, omittedFiles, omittedTrees);
+	}
+
+	public void printSentenceCacheStats(int hits, int misses, double hitRate)
+	{
+		statusOut.printf(
+				"Sentence cache: %s hits, %s misses, hit rate %.1f%%.\n",
+				hits, misses, hitRate);
+	}
+
 	public void finalStatsAndClose(int omittedFiles, int omittedTrees)
 	{
 		if (omittedFiles == 0 && omittedTrees == 0)
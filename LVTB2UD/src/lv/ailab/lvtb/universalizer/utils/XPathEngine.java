@@ -6,17 +6,18 @@ import javax.xml.xpath.XPathFactory;
 /**
  * Singular XPath engine to be used for all the PML XML querying.
  * In case unified specific setup needed, to it here.
+ * XPath objects are not thread safe, thus each thread gets its own engine.
  * Created on 2016-04-22.
  *
  * @author Lauma
  */
 public class XPathEngine
 {
-	protected static XPath xPathEngineSing = null;
+	protected static final ThreadLocal<XPath> xPathEngineSing =
+			ThreadLocal.withInitial(() -> XPathFactory.newInstance().newXPath());
 
 	public static XPath get()
 	{
-		if(xPathEngineSing == null) xPathEngineSing = XPathFactory.newInstance().newXPath();
-		return xPathEngineSing;
+		return xPathEngineSing.get();
 	}
 }
@@ -1,9 +1,18 @@
 package lv.ailab.morphology.corpora;
 
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -15,17 +24,52 @@ import lv.semti.morphology.attributes.AttributeValues;
 import lv.semti.morphology.corpus.Statistics;
 
 import lv.ailab.morphology.corpora.tests.*;
+import lv.ailab.morphology.corpora.util.AnalyzerCache;
+import lv.ailab.morphology.corpora.util.MappedLineReader;
 import lv.ailab.morphology.corpora.util.MorphoEntry;
+import lv.ailab.morphology.corpora.util.MultiwordIndex;
+import lv.ailab.morphology.corpora.util.VerdictStore;
 /**
  * Meaningfull handling of abbriveations (tag: y) currently not implemented.
  */
 public class CorpusVerificator
 {	
+	/**
+	 * Morphological analyzer data.
+	 */
+	public static final String LEXICON_FILE = "lib/morphology/Lexicon.xml";
+	public static final String STATISTICS_FILE = "lib/morphology/Statistics.xml";
+	
 	Analyzer anal;
+	/**
+	 * Analysis results shared by all tests.
+	 */
+	AnalyzerCache analCache;
+	MultiwordIndex multiwords;
 	Statistics morphStat;
 	SingleTokenTests singleTests;
 	ContinousTests contTests;
 	public int accumLength = 4;
+	/**
+	 * How many refine decisions are remembered.
+	 */
+	public static final int REFINE_MEMO_SIZE = 100000;
+	/**
+	 * Refine decisions for (token, old tag, ignore old tag) triples, shared by
+	 * all workers.
+	 */
+	Map<String, Refinement> refinements;
+	AtomicLong refineHits, refineMisses;
+	/**
+	 * Verificators for the workers of a single file, the first one is this.
+	 * With single verificator files are verified without pipeline.
+	 */
+	ArrayList<CorpusVerificator> workers = new ArrayList<CorpusVerificator>();
+	/**
+	 * Verdicts from the previous run, shared by all workers, or null.
+	 */
+	VerdictStore store = null;
+	VerdictStore.Hasher hasher = null;
 	
 	/**
 	 * CLI.
@@ -33,6 +77,23 @@ public class CorpusVerificator
 	public static void main(String[] args)
 	throws Exception
 	{
+		int threads = 1;
+		int workerCount = 1;
+		String storeFile = null;
+		while (args.length > 1)
+		{
+			if (args[0].equalsIgnoreCase("-threads") || args[0].equalsIgnoreCase("-t"))
+				threads = Integer.parseInt(args[1]);
+			else if (args[0].equalsIgnoreCase("-workers") || args[0].equalsIgnoreCase("-w"))
+				workerCount = Integer.parseInt(args[1]);
+			else if (args[0].equalsIgnoreCase("-store") || args[0].equalsIgnoreCase("-s"))
+				storeFile = args[1];
+			else break;
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+		if (threads < 1 || workerCount < 1)
+			throw new IllegalArgumentException("Illegal thread count!");
+		
 		if (args.length < 2 || args.length > 4 ||
 			(args[0].equalsIgnoreCase("-plain") || args[0].equalsIgnoreCase("-p"))
 			&& args.length == 2)
@@ -41,25 +102,41 @@ public class CorpusVerificator
 			System.out.println("AILab, IMCS, UL, 2012-01-18.\r\n");
 			
 			System.out.println(
-				"Usage: [-flag] input_file_or_dir output_file_or_dir [delimiter]");
+				"Usage: [-threads N] [-workers N] [-store F] [-flag] input_file_or_dir output_file_or_dir [delimiter]");
 			System.out.println("Avialable flags:");
 			System.out.println(
 				"    -plain or -p    process plain-text file (XML by default).");
 			System.out.println(
-				"For plain-text procesing, default delimiter ir space.");
+				"    -threads or -t  verify files of the input directory in N parallel");
+			System.out.println(
+				"                    threads, each with its own analyzer (default 1).");
+			System.out.println(
+				"    -workers or -w  verify each file in N parallel threads, each with");
+			System.out.println(
+				"                    its own analyzer; parsing and output have their own");
+			System.out.println(
+				"                    threads (default 1, no separate threads).");
+			System.out.println(
+				"    -store or -s    reuse verdicts stored in file F by the previous run for");
+			System.out.println(
+				"                    unchanged entries, save verdicts of this run there.");
+			System.out.println(
+				"For plain-text procesing, default delimiter ir space (\\t for tab).");
 			
 			return;
 		}
 		
 		CorpusVerificator cv = new CorpusVerificator();
+		if (storeFile != null) cv.setStore(new VerdictStore(new File(storeFile),
+			new File[] {new File(LEXICON_FILE), new File(STATISTICS_FILE)}));
+		cv.setWorkerCount(workerCount);
 		
 		if (args[0].equalsIgnoreCase("-plain") || args[0].equalsIgnoreCase("-p"))
 		{
-		//	if (args.length == 3)
-		//		cv.processPlainText(args[1], args[2], " ");
-		//	else
-		//		cv.processPlainText(args[1], args[2], args[3]);
-			System.out.println("Sorry, not available right now.");
+			if (args.length == 3)
+				cv.processPlainText(args[1], args[2], " ");
+			else
+				cv.processPlainText(args[1], args[2], args[3]);
 		} else
 		{
 			File inPath = new File(args[0]);
@@ -68,15 +145,17 @@ public class CorpusVerificator
 			{
 				if (!outPath.exists())
 					outPath.mkdir();
-				for (File in : inPath.listFiles())
-				{
-					System.out.println("Processing " + in.getName() + "...");
-					cv.processPmlMFile(
-						in.getAbsolutePath(), args[1] + "/" + in.getName());
-				}
+				cv.processDirectory(inPath, args[1], threads);
 			}
 			else cv.processPmlMFile(args[0], args[1]);
 		}
+		System.out.println(cv.analCache.getStats());
+		System.out.println(cv.getRefineStats());
+		if (cv.store != null)
+		{
+			cv.store.save(new File(storeFile));
+			System.out.println(cv.store.getStats());
+		}
 		return;
 	}
 
@@ -86,25 +165,147 @@ public class CorpusVerificator
 	public CorpusVerificator()
 	throws Exception
 	{
-		anal = new Analyzer("lib/morphology/Lexicon.xml");
+		anal = new Analyzer(LEXICON_FILE);
 		
 //		Word w = anal.analyze("no alkohola");
 //		System.out.println("noalkoholu atpazina? " + w.isRecognized());
 		
-		morphStat = Statistics.getStatistics("lib/morphology/Statistics.xml");
-		singleTests = new SingleTokenTests(anal);
-		contTests = new ContinousTests(anal);
+		morphStat = Statistics.getStatistics(STATISTICS_FILE);
+		analCache = new AnalyzerCache(anal);
+		multiwords = new MultiwordIndex(anal);
+		if (multiwords.size() > 0)
+			System.out.println("Multi-token lexemes indexed: " + multiwords.size() + ".");
+		else System.out.println(
+			"Warning: no multi-token lemmas found in the lexicon, all concatenations will be given to the analyzer.");
+		singleTests = new SingleTokenTests(analCache);
+		contTests = new ContinousTests(analCache, multiwords);
+		refinements = new LinkedHashMap<String, Refinement>(16, 0.75f, true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<String, Refinement> eldest)
+			{
+				return size() > REFINE_MEMO_SIZE;
+			}
+		};
+		refineHits = new AtomicLong();
+		refineMisses = new AtomicLong();
+		workers.add(this);
+	}
+	
+	/**
+	 * Constructor for additional worker threads: analyzer is separate, but
+	 * analysis results, statistics and lexicon index are shared with the given
+	 * verificator.
+	 */
+	public CorpusVerificator(CorpusVerificator shareWith)
+	throws Exception
+	{
+		anal = new Analyzer(LEXICON_FILE);
+		morphStat = shareWith.morphStat;
+		analCache = new AnalyzerCache(anal, shareWith.analCache);
+		multiwords = shareWith.multiwords;
+		singleTests = new SingleTokenTests(analCache);
+		contTests = new ContinousTests(analCache, multiwords);
+		refinements = shareWith.refinements;
+		refineHits = shareWith.refineHits;
+		refineMisses = shareWith.refineMisses;
+		accumLength = shareWith.accumLength;
+		setStore(shareWith.store);
+		workers.add(this);
+	}
+	
+	/**
+	 * Use verdicts from the previous run. Must be set before adding workers.
+	 */
+	public void setStore(VerdictStore s)
+	{
+		store = s;
+		hasher = s == null ? null : new VerdictStore.Hasher();
+	}
+	
+	/**
+	 * Set how many threads verify a single file. Additional workers load
+	 * their own analyzers.
+	 */
+	public void setWorkerCount(int count)
+	throws Exception
+	{
+		if (count < 1)
+			throw new IllegalArgumentException("Illegal worker count " + count + "!");
+		while (workers.size() > count) workers.remove(workers.size() - 1);
+		while (workers.size() < count) workers.add(new CorpusVerificator(this));
+	}
+	
+	/**
+	 * Verify all files in the given directory. With more than one thread,
+	 * files are verified in parallel, one file per thread at a time; this
+	 * verificator serves the first thread, others load their own analyzers.
+	 */
+	public void processDirectory(File inDir, final String outDir, int threads)
+	throws Exception
+	{
+		final File[] files = inDir.listFiles();
+		if (threads > files.length) threads = Math.max(files.length, 1);
+		final AtomicInteger next = new AtomicInteger(0);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<Object>> tasks = new ArrayList<Future<Object>>();
+		try
+		{
+			for (int t = 0; t < threads; t++)
+			{
+				final boolean first = t == 0;
+				tasks.add(pool.submit(new Callable<Object>()
+				{
+					public Object call() throws Exception
+					{
+						CorpusVerificator cv = CorpusVerificator.this;
+						if (!first)
+						{
+							cv = new CorpusVerificator(CorpusVerificator.this);
+							cv.setWorkerCount(workers.size());
+						}
+						int i = next.getAndIncrement();
+						while (i < files.length)
+						{
+							System.out.println("Processing " + files[i].getName()
+								+ " (" + (i + 1) + "/" + files.length + ")...");
+							cv.processPmlMFile(files[i].getAbsolutePath(),
+								outDir + "/" + files[i].getName());
+							i = next.getAndIncrement();
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> w : tasks)
+			{
+				try
+				{
+					w.get();
+				} catch (ExecutionException e)
+				{
+					// Other workers stop after their current file.
+					next.set(files.length);
+					if (e.getCause() instanceof Exception)
+						throw (Exception)e.getCause();
+					throw (Error)e.getCause();
+				}
+			}
+		} finally
+		{
+			pool.shutdown();
+		}
+		System.out.println(files.length + " files verified.");
 	}
 	
 	/**
 	 * Fully process first token in the given string. If necessary 1st token
 	 * will be concatinated with some of following tokens.
 	 */
-	public ArrayList<String> processFirst(ArrayList<MorphoEntry> string)
+	public ArrayList<String> processFirst(ArrayDeque<MorphoEntry> string)
 	{
 		// We want to handle false residuals and unannotated tokens poprely in
 		// terms of concatenation.
-		ArrayList<String> res = process(string.get(0));
+		ArrayList<String> res = process(string.peekFirst());
 		String contRes = contTests.concatFirst(string);
 		
 		if (contRes != null)
@@ -115,6 +316,37 @@ public class CorpusVerificator
 		return res;
 	}
 	
+	/**
+	 * Verify the first entry of the window, print it out and remove it (and
+	 * entries concatenated with it) from the window. If the same window was
+	 * verified by the previous run, stored result is printed instead.
+	 */
+	public void printFirst(ArrayDeque<MorphoEntry> string, Writer out)
+	throws IOException
+	{
+		if (store == null)
+		{
+			ArrayList<String> verdict = processFirst(string);
+			string.peekFirst().write(out, verdict);
+			string.removeFirst();
+			return;
+		}
+		
+		VerdictStore.Key key = hasher.windowKey(string);
+		VerdictStore.Verdict stored = store.get(key);
+		if (stored != null)
+		{
+			stored.write(out, string);
+			for (int i = 0; i < stored.consumed; i++) string.removeFirst();
+			return;
+		}
+		int initLength = string.size();
+		ArrayList<String> verdict = processFirst(string);
+		MorphoEntry printed = string.removeFirst();
+		printed.write(out, verdict);
+		store.put(key, initLength - string.size(), printed, verdict);
+	}
+	
 	/**
 	 * Process single entry - verify, capitalize, etc.
 	 */
@@ -124,7 +356,7 @@ public class CorpusVerificator
 		boolean falseResidual = false;
 		
 		if (me.attributes == null) res.add("No Tag");
-		else if (MarkupConverter.toKamolsMarkupNoDefaults(me.attributes).contains("_"))
+		else if (me.getTag().contains("_"))
 			res.add("Unfilled Tag Positions");
 		
 		if (singleTests.tokenizationError(me)) res.add("Tokenization Error");
@@ -149,57 +381,86 @@ public class CorpusVerificator
 	public String refine(MorphoEntry me, boolean ignoreOldTag)
 	{
 		// No need to refine.
-		if (me.attributes != null && 
-			!MarkupConverter.toKamolsMarkupNoDefaults(me.attributes).contains("_"))
+		String oldTag = me.getTag();
+		if (oldTag != null && !oldTag.contains("_"))
 			return null;
 
+		// Decision depends only on the token and the old tag, so same tokens
+		// with same underspecified tags are refined only once.
+		String key = me.token + "\t" + (oldTag == null ? "" : oldTag) + "\t"
+			+ (oldTag == null || ignoreOldTag);
+		Refinement r;
+		synchronized (refinements)
+		{
+			r = refinements.get(key);
+		}
+		if (r != null) refineHits.incrementAndGet();
+		else
+		{
+			refineMisses.incrementAndGet();
+			r = decideRefinement(me, oldTag, ignoreOldTag);
+			synchronized (refinements)
+			{
+				refinements.put(key, r);
+			}
+		}
+		return r.apply(me);
+	}
+	
+	/**
+	 * Find how the given entry can be refined.
+	 */
+	private Refinement decideRefinement(
+		MorphoEntry me, String oldTag, boolean ignoreOldTag)
+	{
 		// Could not refine.
-		Word w = anal.analyze(me.token);
-		if (!w.isRecognized()) return null;
-
+		Word w = analCache.analyze(me.token);
+		if (!w.isRecognized()) return Refinement.NONE;
 
-		// Wordform comparison based on statistics.
-		Comparator<Wordform> wComp = new Comparator<Wordform>()
-		{
-    		public int compare(Wordform w1, Wordform w2)
-    		{
-    			double e1 = morphStat.getEstimate(w1);
-    			double e2 = morphStat.getEstimate(w2);
-    			if (e1 < e2) return 1;
-    			else if (e1 == e2) return 0;
-    			else return -1;
-    		}
-		};
-		
-		// Sort wordforms.
+		// Sort wordforms by statistics, most probable first. Estimates are
+		// calculated once for each wordform, sort is stable.
 		Wordform[] sortedWfs = w.wordforms.toArray(new Wordform[w.wordforms.size()]);
-		Arrays.sort(sortedWfs, wComp);
+		double[] estimates = new double[sortedWfs.length];
+		for (int i = 0; i < sortedWfs.length; i++)
+		{
+			Wordform wf = sortedWfs[i];
+			double e = morphStat.getEstimate(wf);
+			int j = i;
+			while (j > 0 && estimates[j - 1] < e)
+			{
+				sortedWfs[j] = sortedWfs[j - 1];
+				estimates[j] = estimates[j - 1];
+				j--;
+			}
+			sortedWfs[j] = wf;
+			estimates[j] = e;
+		}
 		
 		//System.out.println(morphStat.getEstimate(sortedWfs[0]) + " > "
 		//	+ morphStat.getEstimate(sortedWfs[sortedWfs.length - 1]));
 		
-			
-		if (me.attributes == null || ignoreOldTag)
+		String bestLemma = sortedWfs[0].getValue(AttributeNames.i_Lemma);
+		if (oldTag == null || ignoreOldTag)
 		{
 			// To include defaults provided by annotator
-			me.attributes = MarkupConverter.fromKamolsMarkup(
-				MarkupConverter.toKamolsMarkup(sortedWfs[0]));
-			me.setLemma(sortedWfs[0].getValue(AttributeNames.i_Lemma));
-			return "Auto-annotated";
+			return new Refinement(MarkupConverter.toKamolsMarkup(sortedWfs[0]),
+				true, bestLemma, oldTag, null);
 		} else
 		{
-			String oldTag = MarkupConverter.toKamolsMarkupNoDefaults(me.attributes);
-			
+			ArrayList<String> notes = null;
 			for (Wordform wf : sortedWfs)
 			{
 				if (wf.isMatchingWeak(me.attributes))
 				{
 					String propTag = MarkupConverter.toKamolsMarkup(wf);
 					// Merge old tag with new.
-					StringBuffer newTag = new StringBuffer();
+					StringBuilder newTag = new StringBuilder();
 					if (propTag.length() != oldTag.length())
-						System.out.println("Tags " + oldTag + " and "
+					{
+						if (notes == null) notes = new ArrayList<String>();
+						notes.add("Tags " + oldTag + " and "
 							+ propTag + " does not match by length.");
+					}
 					for (int i = 0; i < oldTag.length(); i++)
 					{
 						if (oldTag.charAt(i) == '_' ) 
@@ -207,26 +468,94 @@ public class CorpusVerificator
 						else newTag.append(oldTag.charAt(i));	
 					}
 					if (!newTag.toString().equals(oldTag))
-					{
-						//me.attributes = MarkupConverter.fromKamolsMarkup(
-						//	newTag.toString());
-						me.setAttributes(newTag.toString());
-						
-						// Update lemma.
-						String lemmaUpd = "";
-						if (me.lemma == null)
-						{
-							me.setLemma(sortedWfs[0].getValue(
-								AttributeNames.i_Lemma));
-							lemmaUpd = " and Lemmma";
-						}
-						return "Tag" + lemmaUpd +" Updated (" + oldTag + ")";
-					}
+						return new Refinement(newTag.toString(), false,
+							bestLemma, oldTag, notes);
 				}
 			}
+			if (notes != null)
+				return new Refinement(null, false, null, oldTag, notes);
 		}
 		
-		return null;
+		return Refinement.NONE;
+	}
+	
+	/**
+	 * Hit rate of remembered refine decisions.
+	 */
+	public String getRefineStats()
+	{
+		long h = refineHits.get();
+		long m = refineMisses.get();
+		return String.format(
+			"Refine memo: %d hits, %d misses, hit rate %.1f%%.",
+			h, m, h + m > 0 ? 100.0 * h / (h + m) : 0.0);
+	}
+	
+	/**
+	 * Result of refine for a single token and old tag: new tag and lemma from
+	 * the most probable wordform.
+	 */
+	static class Refinement
+	{
+		/**
+		 * Nothing to change.
+		 */
+		static final Refinement NONE = new Refinement(null, false, null, null, null);
+		
+		/**
+		 * Tag to set or null if tag is not changed.
+		 */
+		final String tag;
+		/**
+		 * Whether the entry is annotated anew or only missing tag positions
+		 * are filled.
+		 */
+		final boolean auto;
+		final String lemma;
+		final String oldTag;
+		/**
+		 * Messages printed while deciding, printed again for each entry.
+		 */
+		final ArrayList<String> notes;
+		
+		Refinement(String tag, boolean auto, String lemma, String oldTag,
+			ArrayList<String> notes)
+		{
+			this.tag = tag;
+			this.auto = auto;
+			this.lemma = lemma;
+			this.oldTag = oldTag;
+			this.notes = notes;
+		}
+		
+		/**
+		 * Change the entry accordingly.
+		 * @return	verdict or null if entry was not changed
+		 */
+		String apply(MorphoEntry me)
+		{
+			if (notes != null) for (String n : notes) System.out.println(n);
+			if (tag == null) return null;
+			if (auto)
+			{
+				me.attributes = MarkupConverter.fromKamolsMarkup(tag);
+				me.setLemma(lemma);
+				return "Auto-annotated";
+			}
+			
+			//me.attributes = MarkupConverter.fromKamolsMarkup(
+			//	newTag.toString());
+			me.setAttributes(tag);
+			
+			// Update lemma.
+			String lemmaUpd = "";
+			if (me.lemma == null)
+			{
+				me.setLemma(lemma);
+				lemmaUpd = " and Lemmma";
+			}
+			return "Tag" + lemmaUpd +" Updated (" + oldTag + ")";
+		}
 	}
 	
 	/**
@@ -292,8 +621,26 @@ public class CorpusVerificator
 		// Parse.
 		SAXParserFactory factory = SAXParserFactory.newInstance();
 		SAXParser parser = factory.newSAXParser();
-		PmlMHandler handler = new PmlMHandler(this, out, accumLength);
-    	parser.parse(in, handler); 
+		if (workers.size() < 2)
+		{
+			PmlMHandler handler = new PmlMHandler(this, out, accumLength);
+			parser.parse(in, handler);
+		} else
+		{
+			// Parse in this thread, verify and print in pipeline threads.
+			VerificationPipeline pipeline = new VerificationPipeline(
+				workers, out, accumLength);
+			boolean done = false;
+			try
+			{
+				parser.parse(in, new PmlMHandler(pipeline, accumLength));
+				pipeline.close();
+				done = true;
+			} finally
+			{
+				if (!done) pipeline.stop();
+			}
+		}
     	
     	// Close.
     	out.flush();
@@ -303,61 +650,137 @@ public class CorpusVerificator
 	
 	/**
 	 * Run verification tests and lemma capitalization on plain-text file.
-	 *
-	 * TODO use continous tests.
+	 * Each line contains token, tag and lemma, separated by delimiter; if
+	 * there are more pieces, tag is the middle one. Empty lines separate
+	 * sentences. File is read through memory mapped windows, so it may be
+	 * larger than available memory. Output contains token, tag, lemma and
+	 * verdicts separated by tabs.
+	 * @param delimiter	literal string, \t stands for tab
 	 */
-/*	public void processPlainText (
+	public void processPlainText (
 		String inFile, String outFile, String delimiter)
 	throws IOException
 	{
-		BufferedReader in = new BufferedReader(new InputStreamReader(
-			new FileInputStream(inFile), "UTF8"));
+		if ("\\t".equals(delimiter)) delimiter = "\t";
+		byte[] delim = delimiter.getBytes("UTF8");
+		if (delim.length < 1)
+			throw new IllegalArgumentException("Empty delimiter!");
+		
+		// Open.
+		MappedLineReader in = new MappedLineReader(new File(inFile));
 		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
-			new FileOutputStream(outFile), "UTF8"));
+			new FileOutputStream(outFile), "UTF8"), 1 << 16);
 		
 		// Process each line (coresponds to one token).
-		String line = in.readLine();
-		while (line != null)
+		VerificationPipeline pipeline = null;
+		if (workers.size() > 1)
+			pipeline = new VerificationPipeline(workers, out, accumLength);
+		ArrayDeque<MorphoEntry> accum = new ArrayDeque<MorphoEntry>(accumLength + 1);
+		boolean done = false;
+		try
 		{
-			// Input.
-			// Split.
-			String[] splited = line.split(delimiter);
-			if (splited.length % 2 == 0 || splited.length < 3)
-				throw new IOException ("Could not parse \"" + line + "\"!");
-			
-			// If delimiter splits in more than 3 pieces, it is assumed that
-			// tag is the middle piece.
-			int mid = (splited.length + 1) / 2;
-			String token = "";
-			String tag = splited[mid];
-			String lemma = "";
-			for (int i = 0; i < mid; i++)
+			while (in.readLine())
 			{
-				token = token + delimiter + splited[i];
-				lemma = lemma + delimiter + splited[mid + 1 + i];
+				MorphoEntry me = parsePlainLine(
+					in.getBytes(), in.getLength(), delim, in.getLineNumber());
+				if (me == null)
+				{
+					// Empty line ends the sentence.
+					if (pipeline != null)
+					{
+						pipeline.endSentence();
+						pipeline.write("\r\n");
+					} else
+					{
+						while (accum.size() > 0) printFirst(accum, out);
+						out.write("\r\n");
+					}
+				} else if (pipeline != null) pipeline.addEntry(me);
+				else
+				{
+					accum.addLast(me);
+					if (accum.size() >= accumLength) printFirst(accum, out);
+				}
 			}
-			
-			token = token.trim();
-			tag = tag.trim();
-			lemma = lemma.trim();
-			
-			// Process data
-			ArrayList<String> res = process(
-				new MorphoEntry(token, tag, lemma, false));
-			
-			// Output.
-			out.write(token + "\t" + tag + "\t" + lemma);
-			if (res != null) for (String r : res)
+			// End of the file ends the last sentence.
+			if (pipeline != null)
 			{
-				out.write("\t" + r);
+				pipeline.endSentence();
+				pipeline.close();
 			}
-			out.newLine();
-			
-			line = in.readLine();
+			else while (accum.size() > 0) printFirst(accum, out);
+			done = true;
+		} finally
+		{
+			if (!done && pipeline != null) pipeline.stop();
+			in.close();
 		}
-			
-		in.close();
+		
+		// Close.
 		out.flush();
 		out.close();
-	}//*/
+	}
+	
+	/**
+	 * Split plain-text line in token, tag and lemma.
+	 * @return	null for empty line
+	 */
+	private static MorphoEntry parsePlainLine(
+		byte[] line, int length, byte[] delim, long lineNumber)
+	throws IOException
+	{
+		int start = 0;
+		while (start < length && (line[start] & 0xff) <= ' ') start++;
+		if (start == length) return null;
+		
+		// Trailing empty pieces are ignored (as by String.split()), trailing
+		// whitespace would be trimmed anyway.
+		int end = length;
+		while (true)
+		{
+			while (end > 0 && (line[end - 1] & 0xff) <= ' ') end--;
+			if (end < delim.length || !matches(line, end - delim.length, delim))
+				break;
+			end = end - delim.length;
+		}
+		
+		// Count pieces.
+		int pieces = 1;
+		for (int i = 0; i <= end - delim.length; i++)
+			if (matches(line, i, delim))
+			{
+				pieces++;
+				i = i + delim.length - 1;
+			}
+		if (pieces % 2 == 0 || pieces < 3)
+			throw new IOException("Could not parse line " + lineNumber + " \""
+				+ new String(line, 0, length, "UTF8") + "\"!");
+		
+		// If delimiter splits in more than 3 pieces, it is assumed that tag is
+		// the middle piece.
+		int mid = pieces / 2;
+		int tagStart = 0, tagEnd = 0;
+		int found = 0;
+		for (int i = 0; i <= end - delim.length && tagEnd == 0; i++)
+			if (matches(line, i, delim))
+			{
+				found++;
+				if (found == mid) tagStart = i + delim.length;
+				else if (found == mid + 1) tagEnd = i;
+				i = i + delim.length - 1;
+			}
+		
+		String token = new String(line, 0, tagStart - delim.length, "UTF8");
+		String tag = new String(line, tagStart, tagEnd - tagStart, "UTF8");
+		String lemma = new String(line, tagEnd + delim.length,
+			end - tagEnd - delim.length, "UTF8");
+		return new MorphoEntry(token.trim(), tag.trim(), lemma.trim(), false);
+	}
+	
+	private static boolean matches(byte[] line, int from, byte[] delim)
+	{
+		for (int i = 0; i < delim.length; i++)
+			if (line[from + i] != delim[i]) return false;
+		return true;
+	}
 }
\ No newline at end of file
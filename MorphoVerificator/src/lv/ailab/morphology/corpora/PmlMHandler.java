@@ -1,10 +1,10 @@
 package lv.ailab.morphology.corpora;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import org.xml.sax.*;
 import org.xml.sax.helpers.DefaultHandler;
-import lv.semti.morphology.analyzer.MarkupConverter;
 
 import lv.ailab.morphology.corpora.util.MorphoEntry;
 
@@ -13,41 +13,62 @@ import lv.ailab.morphology.corpora.util.MorphoEntry;
 // http://docs.oracle.com/javaee/1.4/tutorial/doc/JAXPSAX3.html
 public class PmlMHandler extends DefaultHandler
 {
+	/**
+	 * Codes for elements with special meaning, all other elements are OTHER.
+	 */
+	protected static final int OTHER = 0, S = 1, M = 2, FORM = 3, TAG = 4,
+		LEMMA = 5, W_RF = 6;
+	
 	/**
 	 * Accumulator size - how many entries are accumulated for continous tests?
 	 */
 	public final int ACCUM_LENGTH;
-	private ArrayList<MorphoEntry> accum;
+	private ArrayDeque<MorphoEntry> accum;
 	private CorpusVerificator corpVer;
-	private BufferedWriter output;
-	private StringBuffer content;
+	private Writer output;
+	// If not null, entries are verified by the pipeline, not by corpVer.
+	private VerificationPipeline pipeline = null;
+	
+	// Character content since the end of the last element.
+	private char[] content = new char[256];
+	private int contentLength = 0;
 	
-	// Lowercased path, ancestors seperated with "/".
-	private String ancestors;
+	// Codes of currently open elements and how many of them are m.
+	private int[] ancestors = new int[32];
+	private int depth = 0;
+	private int mDepth = 0;
 	
 	// Data fields for single morphological token.
 	//private String form, tag, lemma;
 	
 	public PmlMHandler (
-		CorpusVerificator verificator, BufferedWriter out, int accumulatorSize)
+		CorpusVerificator verificator, Writer out, int accumulatorSize)
 	{
 		if (accumulatorSize > 0)
 			ACCUM_LENGTH = accumulatorSize;
 		else
 			throw new IllegalArgumentException(
 				"Illegal accumulator size: " + accumulatorSize + "!");
-		accum = new ArrayList<MorphoEntry>(ACCUM_LENGTH);
-		
+		accum = new ArrayDeque<MorphoEntry>(ACCUM_LENGTH + 1);
+	
 		corpVer = verificator;
 		output = out;
-		
-		//content = null;
-		ancestors = "";
+	
 //		form = null;
 //		tag = null;
 //		lemma = null;
 	}
 	
+	/**
+	 * Handler giving m elements to the pipeline, verification and printing
+	 * happens there.
+	 */
+	public PmlMHandler (VerificationPipeline pipeline, int accumulatorSize)
+	{
+		this(null, pipeline, accumulatorSize);
+		this.pipeline = pipeline;
+	}
+	
 	@Override
 	public void startDocument()
 	throws SAXException
@@ -71,47 +92,32 @@ public class PmlMHandler extends DefaultHandler
 		// Get element name.
 		String elemName = simpleName;
 		if ("".equals(elemName)) elemName = qualifiedName; // not namespace-aware
-		
-		ancestors = ancestors + "/" + elemName.toLowerCase();
-		
+	
+		int code = elementCode(elemName);
+		if (depth == ancestors.length)
+			ancestors = Arrays.copyOf(ancestors, 2 * depth);
+		ancestors[depth++] = code;
+		if (code == M) mDepth++;
+	
 		// Tag, lemma, form and w.rf is printed out when the end of m is
 		// reached.
-		if (ancestors.endsWith("/form")
-			|| ancestors.endsWith("/tag")
-			|| ancestors.endsWith("/lemma")
-			|| ancestors.endsWith("/w.rf")
-			|| ancestors.endsWith("/w.rf/LM")) return;
-		
+		if (code == FORM || code == TAG || code == LEMMA || code == W_RF)
+			return;
+	
 		// If new m starts, data structure for new data is added to the
 		// accumulator.
-		if(ancestors.endsWith("/m"))
-			accum.add(new MorphoEntry(true));
-			
-		// Collect opening tag.
-		StringBuffer staffToPrint = new StringBuffer();
-		staffToPrint.append("\r\n<");
-		staffToPrint.append(elemName);
-		if (attrs != null)
+		if (code == M) accum.addLast(new MorphoEntry(true));
+	
+		try
 		{
-			for (int i = 0; i < attrs.getLength(); i++)
-			{
-				String attrName = attrs.getLocalName(i);
-				if ("".equals(attrName)) attrName = attrs.getQName(i);
-				staffToPrint.append(" ");
-				staffToPrint.append(attrName);
-				staffToPrint.append("=\"");
-				staffToPrint.append(attrs.getValue(i));
-				staffToPrint.append("\"");
-			}
+			// If we are inside m, tag is added to the current morpoelement
+			// buffer, the rest of tags are printed out as they come.
+			if (mDepth > 0) appendStartTag(accum.peekLast().content, elemName, attrs);
+			else appendStartTag(output, elemName, attrs);
+		} catch (IOException e)
+		{
+			throw new SAXException("I/O error", e);
 		}
-		
-		staffToPrint.append(">");
-		
-		// If we are inside m, tag is added to the current morpoelement buffer.
-		if (ancestors.contains("/m/") || ancestors.endsWith("/m"))
-			accum.get(accum.size() - 1).content.append(staffToPrint);
-		// The rest of tags are printed out as they come.
-		else print(staffToPrint.toString());
 	}
 	
 	
@@ -122,83 +128,193 @@ public class PmlMHandler extends DefaultHandler
 	{
 		String elemName = simpleName;
   		if ("".equals(elemName)) elemName = qualifiedName; // not namespace-aware
-
+		int code = ancestors[depth - 1];
+	
 		// If "s" is ending.
-		if (ancestors.endsWith("/s"))
+		if (code == S)
 		{
-			while(accum.size() > 0)
-			{
-				ArrayList<String> verdict = corpVer.processFirst(accum);
-				print(accum.get(0).toXmlString(verdict));
-				accum.remove(0);
-			}
+			if (pipeline != null) endSentence();
+			else while(accum.size() > 0) printFirst();
 		}
-		
+	
 		// If "m" is ending.
-		if (ancestors.endsWith("/m"))
+		if (code == M)
 		{
-			if (accum.size() >= ACCUM_LENGTH)
-			{
-				ArrayList<String> verdict = corpVer.processFirst(accum);
-				print(accum.get(0).toXmlString(verdict));
-				accum.remove(0);
-			}
-			
+			if (pipeline != null) addEntry();
+			else if (accum.size() >= ACCUM_LENGTH) printFirst();
 		}
-		
+	
 		// Save the meaningfull fields at their end.
-		else if (ancestors.endsWith("/form"))
-			accum.get(accum.size() - 1).setToken(content.toString());
-		else if (ancestors.endsWith("/tag"))
+		else if (code == FORM)
+			accum.peekLast().setToken(contentString());
+		else if (code == TAG)
+			accum.peekLast().setAttributes(contentString());
+		else if (code == LEMMA)
+			accum.peekLast().setLemma(contentString());
+		else if (code == W_RF)
 		{
-			accum.get(accum.size() - 1).setAttributes(content.toString());
+			// Empty w.rf is dropped, its start tag is not stored either.
+			if (contentLength > 0)
+				accum.peekLast().wRefs.add(contentString().trim());
 		}
-		else if (ancestors.endsWith("/lemma"))
-			accum.get(accum.size() - 1).setLemma(content.toString());
-		else if (ancestors.endsWith("/w.rf") && content.length() > 0
-				 || ancestors.endsWith("/w.rf/LM"))
-			accum.get(accum.size() - 1).wRefs.add(content.toString().trim());
-			
+	
 		// Store or print out other tags and their content.
-		else if (ancestors.contains("/m/"))
+		else if (mDepth > 0)
 		{
 			// If we are inside m, tag is added to the current morpoelement
 			// buffer.
-			StringBuffer tmp = accum.get(accum.size() - 1).content;
-			tmp.append(content.toString().trim());
+			StringBuilder tmp = accum.peekLast().content;
+			int start = trimStart();
+			tmp.append(content, start, trimEnd(start) - start);
 			tmp.append("</"); tmp.append(elemName); tmp.append(">");
-		} else 
+		} else
 		{
 			// If we are outside m element, tags are printed out as they come.
 			printTextBuffer();
-	  		print("</" + elemName + ">");
-
+	  		print("</");
+	  		print(elemName);
+	  		print(">");
 		}
-			
-		content = null;
-		if (ancestors.endsWith(elemName.toLowerCase()))
-			ancestors = ancestors.substring(0, ancestors.lastIndexOf("/"));
+	
+		contentLength = 0;
+		depth--;
+		if (code == M) mDepth--;
 	}
 	
 	@Override
 	public void characters(char buffer[], int offset, int len)
 	throws SAXException
 	{
-		String s = new String(buffer, offset, len);
-		if (content == null) content = new StringBuffer();
-		content.append(buffer, offset, len);
-	} 
+		if (contentLength + len > content.length)
+			content = Arrays.copyOf(
+				content, Math.max(2 * content.length, contentLength + len));
+		System.arraycopy(buffer, offset, content, contentLength, len);
+		contentLength = contentLength + len;
+	}
+	
+	/**
+	 * Verify the first entry of the accumulator, print it out and remove it.
+	 */
+	private void printFirst()
+	throws SAXException
+	{
+		try
+		{
+			corpVer.printFirst(accum, output);
+		} catch (IOException e)
+		{
+			throw new SAXException("I/O error", e);
+		}
+	}
+	
+	private void addEntry()
+	throws SAXException
+	{
+		try
+		{
+			pipeline.addEntry(accum.removeLast());
+		} catch (IOException e)
+		{
+			throw new SAXException("Verification error", e);
+		}
+	}
+	
+	private void endSentence()
+	throws SAXException
+	{
+		try
+		{
+			pipeline.endSentence();
+		} catch (IOException e)
+		{
+			throw new SAXException("Verification error", e);
+		}
+	}
 	
 	private void printTextBuffer()
 	throws SAXException
 	{
-		if (content == null) return;
-		print(content.toString().trim());
-		content = null;
+		int start = trimStart();
+		try
+		{
+			output.write(content, start, trimEnd(start) - start);
+		} catch (IOException e)
+		{
+			throw new SAXException("I/O error", e);
+		}
+		contentLength = 0;
+	}
+	
+	/**
+	 * Content accumulated since the end of the last element.
+	 */
+	private String contentString()
+	{
+		return new String(content, 0, contentLength);
+	}
+	
+	/**
+	 * Start of the content without leading whitespace (as in String.trim()).
+	 */
+	private int trimStart()
+	{
+		int start = 0;
+		while (start < contentLength && content[start] <= ' ') start++;
+		return start;
+	}
+	
+	/**
+	 * End of the content without trailing whitespace (as in String.trim()).
+	 */
+	private int trimEnd(int start)
+	{
+		int end = contentLength;
+		while (end > start && content[end - 1] <= ' ') end--;
+		return end;
+	}
+	
+	/**
+	 * Code for the element with the given name, names are case insensitive.
+	 */
+	protected static int elementCode(String elemName)
+	{
+		if ("m".equalsIgnoreCase(elemName)) return M;
+		if ("s".equalsIgnoreCase(elemName)) return S;
+		if ("form".equalsIgnoreCase(elemName)) return FORM;
+		if ("tag".equalsIgnoreCase(elemName)) return TAG;
+		if ("lemma".equalsIgnoreCase(elemName)) return LEMMA;
+		if ("w.rf".equalsIgnoreCase(elemName)) return W_RF;
+		return OTHER;
+	}
+	
+	/**
+	 * Append opening tag with all attributes.
+	 */
+	private static void appendStartTag(
+		Appendable out, String elemName, Attributes attrs)
+	throws IOException
+	{
+		out.append("\r\n<");
+		out.append(elemName);
+		if (attrs != null)
+		{
+			for (int i = 0; i < attrs.getLength(); i++)
+			{
+				String attrName = attrs.getLocalName(i);
+				if ("".equals(attrName)) attrName = attrs.getQName(i);
+				out.append(" ");
+				out.append(attrName);
+				out.append("=\"");
+				out.append(attrs.getValue(i));
+				out.append("\"");
+			}
+		}
+		out.append(">");
 	}
 	
  	/**
 	 * Prints string to output stream and wraps IO exceptions as SAX exceptions.
+	 * Output is flushed by the caller when the whole document is processed.
 	 */
 	private void print(String s)
 	throws SAXException
@@ -206,7 +322,6 @@ public class PmlMHandler extends DefaultHandler
 		try
 		{
 	    	output.write(s);
-	    	output.flush();
 		} catch (IOException e)
 	  	{
 			throw new SAXException("I/O error", e);
@@ -229,4 +344,4 @@ public class PmlMHandler extends DefaultHandler
 	  	}
 	}//*/
 
-}
\ No newline at end of file
+}
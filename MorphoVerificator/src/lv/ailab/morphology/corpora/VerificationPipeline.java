@@ -0,0 +1,377 @@
+package lv.ailab.morphology.corpora;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import lv.ailab.morphology.corpora.util.MorphoEntry;
+
+/**
+ * Verification of a single file split in three stages: parser (the thread
+ * giving data to this pipeline) collects sentences in batches, several
+ * workers verify batches, each with its own verificator, and writer prints
+ * verified batches in their original order. Stages are connected with
+ * bounded queues.
+ *
+ * Parser (PML-M or plain-text) gives text to print as to a Writer, with
+ * entries and sentence ends between. Worker replays them with its own sliding
+ * window, exactly as PmlMHandler would do, so output does not depend on the
+ * worker count. Window is always empty after the end of a sentence, so
+ * batches are split only there. If sentence ends do not come for a long time
+ * (e.g., plain-text without empty lines), workers are stopped and the rest is
+ * verified in the parser thread.
+ */
+public class VerificationPipeline extends Writer
+{
+	/**
+	 * Batch is given to workers at the first sentence end after this many
+	 * m elements.
+	 */
+	public static final int BATCH_SIZE = 256;
+	/**
+	 * If batch has this many m elements and still no sentence end, the rest
+	 * of the file is verified in the parser thread.
+	 */
+	public static final int LONG_RUN = 64 * BATCH_SIZE;
+	/**
+	 * Marker for the end of the sentence in the batch.
+	 */
+	private static final Object SENTENCE_END = new Object();
+	/**
+	 * Marker for the end of input in queues.
+	 */
+	private static final Batch END = new Batch();
+
+	private final int accumLength;
+	private final int workerCount;
+	private final Writer output;
+	private final BlockingQueue<Batch> toVerify;
+	private final BlockingQueue<Batch> toWrite;
+	private final ArrayList<Thread> threads = new ArrayList<Thread>();
+	private Batch current = new Batch();
+	private volatile Throwable failure = null;
+	/**
+	 * Verificator and window for the parser thread, window is null while
+	 * workers are used.
+	 */
+	private final CorpusVerificator serialVerificator;
+	private ArrayDeque<MorphoEntry> serialAccum = null;
+
+	/**
+	 * Start worker and writer threads.
+	 * @param verificators	one for each worker, must not be used by others
+	 * 						while the pipeline works
+	 * @param out			where to print the verified data
+	 */
+	public VerificationPipeline(
+		List<CorpusVerificator> verificators, Writer out, int accumLength)
+	{
+		this.accumLength = accumLength;
+		workerCount = verificators.size();
+		serialVerificator = verificators.get(0);
+		output = out;
+		toVerify = new ArrayBlockingQueue<Batch>(2 * verificators.size());
+		toWrite = new ArrayBlockingQueue<Batch>(4 * verificators.size());
+		for (final CorpusVerificator cv : verificators)
+		{
+			threads.add(new Thread("MorphoVerificator-worker-" + (threads.size() + 1))
+			{
+				public void run()
+				{
+					verify(cv);
+				}
+			});
+		}
+		threads.add(new Thread("MorphoVerificator-writer")
+		{
+			public void run()
+			{
+				write();
+			}
+		});
+		for (Thread t : threads) t.start();
+	}
+
+	/**
+	 * Text to be printed as is.
+	 */
+	@Override
+	public void write(char[] cbuf, int off, int len)
+	throws IOException
+	{
+		if (serialAccum != null) output.write(cbuf, off, len);
+		else current.text.append(cbuf, off, len);
+	}
+
+	@Override
+	public void write(String str)
+	throws IOException
+	{
+		if (serialAccum != null) output.write(str);
+		else current.text.append(str);
+	}
+
+	/**
+	 * Complete m element, verified when window is full or sentence ends.
+	 */
+	public void addEntry(MorphoEntry entry)
+	throws IOException
+	{
+		if (serialAccum != null)
+		{
+			replay(serialVerificator, serialAccum, entry, output);
+			return;
+		}
+		current.flushText();
+		current.ops.add(entry);
+		current.entries++;
+		if (current.entries >= LONG_RUN) goSerial();
+	}
+
+	/**
+	 * End of the sentence, all entries of the window are verified.
+	 */
+	public void endSentence()
+	throws IOException
+	{
+		if (serialAccum != null)
+		{
+			replay(serialVerificator, serialAccum, SENTENCE_END, output);
+			return;
+		}
+		current.flushText();
+		current.ops.add(SENTENCE_END);
+		if (current.entries >= BATCH_SIZE) submit();
+	}
+
+	/**
+	 * Nothing is printed before the whole batch is verified.
+	 */
+	@Override
+	public void flush()
+	{
+	}
+
+	/**
+	 * Submit the last batch, wait until everything is printed and stop all
+	 * threads. Exceptions from workers and writer are rethrown.
+	 */
+	@Override
+	public void close()
+	throws IOException
+	{
+		if (serialAccum != null) return;
+		submit();
+		try
+		{
+			for (int i = 0; i < workerCount; i++) toVerify.put(END);
+			toWrite.put(END);
+			for (Thread t : threads) t.join();
+		} catch (InterruptedException e)
+		{
+			stop();
+			throw new InterruptedIOException();
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Stop all threads without verifying data not yet taken by workers, e.g.,
+	 * when parsing has failed. Nothing more is printed.
+	 */
+	public void stop()
+	{
+		if (failure == null) failure = new InterruptedIOException("Verification stopped!");
+		if (serialAccum != null) return;
+		ArrayList<Batch> left = new ArrayList<Batch>();
+		toVerify.drainTo(left);
+		for (Batch b : left) b.setResult(null, null);
+		try
+		{
+			for (int i = 0; i < workerCount; i++) toVerify.put(END);
+			toWrite.put(END);
+			for (Thread t : threads) t.join();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void submit()
+	throws IOException
+	{
+		checkFailure();
+		current.flushText();
+		Batch next = current;
+		current = new Batch();
+		try
+		{
+			toWrite.put(next);
+			toVerify.put(next);
+		} catch (InterruptedException e)
+		{
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Let workers finish batches already submitted, then replay the current
+	 * batch and verify everything after it in this thread.
+	 */
+	private void goSerial()
+	throws IOException
+	{
+		System.out.printf(
+			"No sentence end in %d entries, verification continues in a single thread.\n",
+			current.entries);
+		current.flushText();
+		Batch rest = current;
+		current = new Batch();
+		try
+		{
+			for (int i = 0; i < workerCount; i++) toVerify.put(END);
+			toWrite.put(END);
+			for (Thread t : threads) t.join();
+		} catch (InterruptedException e)
+		{
+			stop();
+			throw new InterruptedIOException();
+		}
+		checkFailure();
+		serialAccum = new ArrayDeque<MorphoEntry>(accumLength + 1);
+		for (Object op : rest.ops)
+			replay(serialVerificator, serialAccum, op, output);
+	}
+
+	/**
+	 * Do one operation from the batch with the given window.
+	 */
+	private void replay(CorpusVerificator cv, ArrayDeque<MorphoEntry> accum,
+		Object op, Writer res)
+	throws IOException
+	{
+		if (op == SENTENCE_END)
+		{
+			while (accum.size() > 0) cv.printFirst(accum, res);
+		} else if (op instanceof MorphoEntry)
+		{
+			accum.addLast((MorphoEntry)op);
+			if (accum.size() >= accumLength) cv.printFirst(accum, res);
+		} else res.write((String)op);
+	}
+
+	private void checkFailure()
+	throws IOException
+	{
+		if (failure instanceof IOException) throw (IOException)failure;
+		if (failure instanceof Error) throw (Error)failure;
+		if (failure != null) throw new IOException("Verification failed!", failure);
+	}
+
+	/**
+	 * Replay batches with the given verificator.
+	 */
+	private void verify(CorpusVerificator cv)
+	{
+		ArrayDeque<MorphoEntry> accum = new ArrayDeque<MorphoEntry>(accumLength + 1);
+		try
+		{
+			Batch batch = toVerify.take();
+			while (batch != END)
+			{
+				// After a failure nothing is printed anymore.
+				if (failure != null) batch.setResult(null, null);
+				else try
+				{
+					StringWriter res = new StringWriter();
+					for (Object op : batch.ops) replay(cv, accum, op, res);
+					batch.setResult(res.toString(), null);
+				} catch (Throwable e)
+				{
+					// Also errors, e.g., out of memory, otherwise writer would
+					// wait for this batch forever.
+					batch.setResult(null, e);
+				}
+				accum.clear();
+				batch = toVerify.take();
+			}
+		} catch (InterruptedException e)
+		{
+			// Pipeline is stopped.
+		}
+	}
+
+	/**
+	 * Print verified batches in their original order.
+	 */
+	private void write()
+	{
+		try
+		{
+			Batch batch = toWrite.take();
+			while (batch != END)
+			{
+				// After a failure batches are only taken out of the queue, so
+				// that the parser is not blocked and can notice the failure.
+				String res = batch.getResult();
+				if (batch.error != null)
+				{
+					if (failure == null) failure = batch.error;
+				} else if (failure == null) try
+				{
+					output.write(res);
+				} catch (Throwable e)
+				{
+					failure = e;
+				}
+				batch = toWrite.take();
+			}
+		} catch (InterruptedException e)
+		{
+			// Pipeline is stopped.
+		}
+	}
+
+	/**
+	 * Sentences given to a single worker: text to print (String), entries
+	 * (MorphoEntry) and sentence ends.
+	 */
+	private static class Batch
+	{
+		ArrayList<Object> ops = new ArrayList<Object>();
+		StringBuilder text = new StringBuilder();
+		int entries = 0;
+		private boolean done = false;
+		private String result = null;
+		private Throwable error = null;
+
+		void flushText()
+		{
+			if (text.length() == 0) return;
+			ops.add(text.toString());
+			text.setLength(0);
+		}
+
+		synchronized void setResult(String res, Throwable e)
+		{
+			result = res;
+			error = e;
+			done = true;
+			notifyAll();
+		}
+
+		/**
+		 * Wait until the batch is verified. If verification failed, result
+		 * is null and error is set.
+		 */
+		synchronized String getResult()
+		throws InterruptedException
+		{
+			while (!done) wait();
+			return result;
+		}
+	}
+}
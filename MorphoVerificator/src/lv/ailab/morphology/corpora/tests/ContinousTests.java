@@ -1,27 +1,54 @@
 package lv.ailab.morphology.corpora.tests;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import lv.semti.morphology.analyzer.*;
 import lv.semti.morphology.attributes.AttributeNames;
 
+import lv.ailab.morphology.corpora.util.AnalyzerCache;
 import lv.ailab.morphology.corpora.util.MorphoEntry;
+import lv.ailab.morphology.corpora.util.MultiwordIndex;
 
 public class ContinousTests
 {
-	Analyzer anal;
+	AnalyzerCache anal;
+	/**
+	 * Multi-token lexemes, if given, only matching concatenations are
+	 * analyzed.
+	 */
+	MultiwordIndex multiwords = null;
 	
 	/**
 	 * Initialize test enviroment.
 	 */
 	public ContinousTests(Analyzer a)
 	{
-		anal = a;
+		this(new AnalyzerCache(a));
+	}
+	
+	/**
+	 * Initialize test enviroment with analyzer results shared with other
+	 * tests.
+	 */
+	public ContinousTests(AnalyzerCache c)
+	{
+		anal = c;
+	}
+	
+	/**
+	 * Initialize test enviroment with analyzer results shared with other
+	 * tests and multi-token lexemes from the analyzer lexicon.
+	 */
+	public ContinousTests(AnalyzerCache c, MultiwordIndex m)
+	{
+		anal = c;
+		multiwords = m;
 	}
 	
 	/**
 	 * Process given string applying all tests.
 	 */
-	public String concatFirst(ArrayList<MorphoEntry> string)
+	public String concatFirst(ArrayDeque<MorphoEntry> string)
 	{
 		int initLength = string.size();
 		if (concatWithAnalyzer(string).size() < initLength)
@@ -42,25 +69,30 @@ public class ContinousTests
 	 *			appropriate concatination has been found, this structure is
 	 *			alternated!
 	 */
-	public ArrayList<MorphoEntry> concatWithAnalyzer(
-		ArrayList<MorphoEntry> string)
+	public ArrayDeque<MorphoEntry> concatWithAnalyzer(
+		ArrayDeque<MorphoEntry> string)
 	{
 		// Calculate words to try
 		String[] guesses = new String[string.size()];
-		guesses[0] = string.get(0).token;
-		for (int i = 1; i < string.size(); i++)
+		int i = 0;
+		for (MorphoEntry me : string)
 		{
 			// TODO use spacing from w file?
-			guesses[i] = (guesses[i-1] + " " + string.get(i).token).trim();
+			if (i == 0) guesses[i] = me.token;
+			else guesses[i] = (guesses[i-1] + " " + me.token).trim();
+			i++;
 		}
 		
+		// Single first token is not a concatenation, so it is not analyzed.
 		int last = string.size();
 		boolean found = false;
 		Word w = null;
-		while (last > 0 && !found)
+		while (last > 1 && !found)
 		{
 			last--;
 			//w = null;
+			if (multiwords != null && !multiwords.isCandidate(guesses[last]))
+				continue;
 			w = anal.analyze(guesses[last]);
 			if (w.isRecognized())
 			{
@@ -74,13 +106,13 @@ public class ContinousTests
 		}
 		
 		// If nothing was found.
-		if (last == 0) return string;
+		if (!found) return string;
 		
 		// Replace concatenated morphoentries with the new one.
 		MorphoEntry newME = new MorphoEntry (
 			guesses[last], w.wordforms.get(0),
 			w.wordforms.get(0).getValue(AttributeNames.i_Lemma),
-			string.get(0).XML);
+			string.peekFirst().XML);
 		
 		return replaceFirst(string, newME, last + 1);
 		
@@ -91,36 +123,35 @@ public class ContinousTests
 	 * word. Decision is made based on heuristics about POS.
 	 *
 	 */
-	public ArrayList<MorphoEntry> concatByPos(ArrayList<MorphoEntry> string)
+	public ArrayDeque<MorphoEntry> concatByPos(ArrayDeque<MorphoEntry> string)
 	{
 		// Multiple reziduals can be concatinated.
 		// Last rezidual in continuous rezidual stream.
 		int lastRez = -1;
-		for (int i = 0; i < string.size(); i++)
+		String newToken = "";
+		for (MorphoEntry me : string)
 		{
-			if (string.get(i).attributes == null ||
-				!string.get(i).attributes.isMatchingStrong(
+			if (me.attributes == null ||
+				!me.attributes.isMatchingStrong(
 					AttributeNames.i_PartOfSpeech,
 					AttributeNames.v_Residual))
 			{
 				break;
-			} else lastRez = i;
+			} else
+			{
+				lastRez++;
+				// TODO use space from w file?
+				newToken = newToken + " " + me.token;
+			}
 		}
 		if (lastRez > 0)
 		{
-			String newToken = "";
 			String newLemma = "";
-			
-			for (int i = 0; i <= lastRez; i++)
-			{
-				// TODO use space from w file?
-				newToken = newToken + " " + string.get(i).token;
-			}
 			newToken = newToken.trim();
 			
 			MorphoEntry newME = new MorphoEntry(
 				newToken, MarkupConverter.fromKamolsMarkup("x"), newToken,
-				string.get(0).XML);
+				string.peekFirst().XML);
 			//newME.content = string.get(0).content;
 			
 			replaceFirst(string, newME, lastRez + 1);
@@ -134,20 +165,20 @@ public class ContinousTests
 	 * Replace first n elements with the given new element and create
 	 * appropriate w references for the new element.
 	 */
-	private ArrayList<MorphoEntry> replaceFirst(
-		ArrayList<MorphoEntry> string, MorphoEntry newFirst, int n)
+	private ArrayDeque<MorphoEntry> replaceFirst(
+		ArrayDeque<MorphoEntry> string, MorphoEntry newFirst, int n)
 	{
 		newFirst.wRefs = new ArrayList<String>();
 		
-		if (newFirst.XML) newFirst.content = string.get(0).content;
+		if (newFirst.XML) newFirst.content = string.peekFirst().content;
 		
 		for (int i = 0; i < n; i++)
 		{
-			if (newFirst.XML) newFirst.wRefs.addAll(string.get(0).wRefs);
-			string.remove(0);
+			MorphoEntry old = string.removeFirst();
+			if (newFirst.XML) newFirst.wRefs.addAll(old.wRefs);
 		}
 		
-		string.add(0, newFirst);
+		string.addFirst(newFirst);
 		return string;
 	}
 
@@ -1,5 +1,6 @@
 package lv.ailab.morphology.corpora.tests;
 
+import lv.ailab.morphology.corpora.util.AnalyzerCache;
 import lv.ailab.morphology.corpora.util.MorphoEntry;
 import lv.semti.morphology.analyzer.*;
 import lv.semti.morphology.attributes.AttributeNames;
@@ -12,14 +13,22 @@ import lv.semti.morphology.attributes.AttributeValues;
 public class SingleTokenTests
 {
 	
-	Analyzer anal;
+	AnalyzerCache anal;
 	
 	/**
 	 * Initiate test enviroment.
 	 */
 	public SingleTokenTests(Analyzer a)
 	{
-		anal = a;
+		this(new AnalyzerCache(a));
+	}
+	
+	/**
+	 * Initiate test enviroment with analyzer results shared with other tests.
+	 */
+	public SingleTokenTests(AnalyzerCache c)
+	{
+		anal = c;
 	}
 	
 	/**
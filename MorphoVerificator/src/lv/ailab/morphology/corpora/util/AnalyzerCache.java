@@ -0,0 +1,107 @@
+package lv.ailab.morphology.corpora.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import lv.semti.morphology.analyzer.Analyzer;
+import lv.semti.morphology.analyzer.Word;
+
+/**
+ * Bounded cache of morphological analyzer results, keyed by surface string.
+ * Sliding window tests analyze the same tokens and token concatenations
+ * several times, so analysis results are shared by all tests. Least recently
+ * used strings are dropped first. Several analyzers (e.g., one for each
+ * thread) may share the same cached results, analysis itself is done
+ * without holding the lock.
+ */
+public class AnalyzerCache
+{
+	/**
+	 * Default count of strings kept in the cache.
+	 */
+	public static final int DEFAULT_SIZE = 100000;
+
+	private Analyzer anal;
+	private final LinkedHashMap<String, Word> words;
+	private final AtomicLong hits, misses;
+
+	public AnalyzerCache(Analyzer a)
+	{
+		this(a, DEFAULT_SIZE);
+	}
+
+	public AnalyzerCache(Analyzer a, final int maxSize)
+	{
+		if (maxSize < 1)
+			throw new IllegalArgumentException("Illegal cache size " + maxSize + "!");
+		anal = a;
+		words = new LinkedHashMap<String, Word>(16, 0.75f, true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<String, Word> eldest)
+			{
+				return size() > maxSize;
+			}
+		};
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+	}
+
+	/**
+	 * Make cache that uses the given analyzer, but shares cached results and
+	 * hit counts with other cache.
+	 */
+	public AnalyzerCache(Analyzer a, AnalyzerCache shareWith)
+	{
+		anal = a;
+		words = shareWith.words;
+		hits = shareWith.hits;
+		misses = shareWith.misses;
+	}
+
+	/**
+	 * Analyze given string or take the result from the cache. Returned Word
+	 * is shared, it must not be changed.
+	 */
+	public Word analyze(String token)
+	{
+		Word res;
+		synchronized (words)
+		{
+			res = words.get(token);
+		}
+		if (res != null)
+		{
+			hits.incrementAndGet();
+			return res;
+		}
+		misses.incrementAndGet();
+		res = anal.analyze(token);
+		synchronized (words)
+		{
+			words.put(token, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Underlying analyzer.
+	 */
+	public Analyzer getAnalyzer()
+	{
+		return anal;
+	}
+
+	public String getStats()
+	{
+		long h = hits.get();
+		long m = misses.get();
+		int size;
+		synchronized (words)
+		{
+			size = words.size();
+		}
+		return String.format(
+			"Analyzer cache: %d hits, %d misses, hit rate %.1f%%, %d words cached.",
+			h, m, h + m > 0 ? 100.0 * h / (h + m) : 0.0, size);
+	}
+}
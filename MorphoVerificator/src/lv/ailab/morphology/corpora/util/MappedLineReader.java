@@ -0,0 +1,112 @@
+package lv.ailab.morphology.corpora.util;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads lines of a file as bytes through memory mapped windows, so that
+ * files larger than 2 GB can be read without copying them through stream
+ * buffers. Lines may be split between windows. Line is valid only until the
+ * next line is read.
+ */
+public class MappedLineReader
+{
+	/**
+	 * Size of the file part mapped at once.
+	 */
+	public static final long WINDOW_SIZE = 64L << 20;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+	// Position of the next line in the file.
+	private long position = 0;
+
+	private byte[] line = new byte[256];
+	private int length = 0;
+	private long lineNumber = 0;
+
+	public MappedLineReader(File f)
+	throws IOException
+	{
+		file = new RandomAccessFile(f, "r");
+		channel = file.getChannel();
+		size = channel.size();
+	}
+
+	/**
+	 * Read the next line without line end ("\n" or "\r\n").
+	 * @return	false, if there are no more lines
+	 */
+	public boolean readLine()
+	throws IOException
+	{
+		if (position >= size) return false;
+		length = 0;
+		boolean ended = false;
+		while (!ended && position < size)
+		{
+			if (window == null || position >= windowStart + window.limit())
+			{
+				windowStart = position;
+				window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+					Math.min(WINDOW_SIZE, size - windowStart));
+			}
+			int from = (int)(position - windowStart);
+			int end = from;
+			int limit = window.limit();
+			while (end < limit && window.get(end) != '\n') end++;
+			ended = end < limit;
+			append(from, end);
+			position = windowStart + end + (ended ? 1 : 0);
+		}
+		if (length > 0 && line[length - 1] == '\r') length--;
+		lineNumber++;
+		return true;
+	}
+
+	private void append(int from, int to)
+	{
+		if (length + to - from > line.length)
+			line = Arrays.copyOf(line, Math.max(2 * line.length, length + to - from));
+		window.position(from);
+		window.get(line, length, to - from);
+		length = length + to - from;
+	}
+
+	/**
+	 * Bytes of the current line, valid until the next readLine().
+	 */
+	public byte[] getBytes()
+	{
+		return line;
+	}
+
+	/**
+	 * Length of the current line in bytes.
+	 */
+	public int getLength()
+	{
+		return length;
+	}
+
+	/**
+	 * Number of the current line, starting from 1.
+	 */
+	public long getLineNumber()
+	{
+		return lineNumber;
+	}
+
+	public void close()
+	throws IOException
+	{
+		window = null;
+		channel.close();
+		file.close();
+	}
+}
@@ -1,6 +1,10 @@
 package lv.ailab.morphology.corpora.util;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.List;
 import lv.semti.morphology.analyzer.MarkupConverter;
 import lv.semti.morphology.attributes.AttributeValues;
 
@@ -29,13 +33,29 @@ public class MorphoEntry
 	/**
 	 * Other content in case of XML processing, otherwise null.
 	 */
-	public StringBuffer content = null;
+	public StringBuilder content = null;
 	
 	/**
 	 * Is this entry used to store data for XML procesing.
 	 */
 	public final boolean XML;
 	
+	/**
+	 * Tag as given in the input, if set from string.
+	 */
+	public String sourceTag = null;
+	
+	/**
+	 * Digest used for finding stored verdicts, null until needed.
+	 */
+	public byte[] digest = null;
+	
+	/**
+	 * Cached tag and attributes it was made from.
+	 */
+	private String cachedTag = null;
+	private AttributeValues tagAttributes = null;
+	
 	/**
 	 * Create new entry.
 	 */
@@ -48,7 +68,7 @@ public class MorphoEntry
 		if (fromXml)
 		{
 			wRefs = new ArrayList<String>();
-			content = new StringBuffer();
+			content = new StringBuilder();
 		}
 	}	
 	
@@ -65,7 +85,7 @@ public class MorphoEntry
 		if (fromXml)
 		{
 			wRefs = new ArrayList<String>();
-			content = new StringBuffer();
+			content = new StringBuilder();
 		}
 	}
 	
@@ -81,7 +101,7 @@ public class MorphoEntry
 		if (fromXml)
 		{
 			wRefs = new ArrayList<String>();
-			content = new StringBuffer();
+			content = new StringBuilder();
 		}
 	}
 	
@@ -101,6 +121,7 @@ public class MorphoEntry
 	public void setAttributes(String tag)
 	{
 		//tag = tag.trim().replace('-', '_');
+		sourceTag = tag;
 		String normTag = tag.trim().replace('-', '_')	//TODO
 			.toLowerCase().replace("[", "").replace("]", "");
 		if (normTag.length() < 1
@@ -112,7 +133,7 @@ public class MorphoEntry
 			this.attributes = MarkupConverter.fromKamolsMarkup(normTag);
 			
 			// Print out mismatch warning.
-			String loaded = MarkupConverter.toKamolsMarkupNoDefaults(this.attributes);
+			String loaded = getTag();
 			if (!tag.trim().startsWith(loaded) && !normTag.startsWith(loaded)
 				&& !loaded.startsWith(normTag))
 				System.out.println(
@@ -120,6 +141,21 @@ public class MorphoEntry
 		}
 	}
 	
+	/**
+	 * Tag without defaults (as given by toKamolsMarkupNoDefaults) or null, if
+	 * there are no attributes. Tag is made once for each attributes object.
+	 */
+	public String getTag()
+	{
+		if (attributes == null) return null;
+		if (tagAttributes != attributes)
+		{
+			cachedTag = MarkupConverter.toKamolsMarkupNoDefaults(attributes);
+			tagAttributes = attributes;
+		}
+		return cachedTag;
+	}
+	
 	/**
 	 * Set token.
 	 */
@@ -133,44 +169,132 @@ public class MorphoEntry
 	 */
 	public String toXmlString(ArrayList<String> verdict)
 	{
-		String tag = attributes == null ? "N/A" : 
-			MarkupConverter.toKamolsMarkupNoDefaults(attributes);
-		String l = lemma == null ? "N/A" : lemma;
-		
-		StringBuffer res = new StringBuffer(content.toString());
+		StringWriter res = new StringWriter();
+		try
+		{
+			writeXml(res, verdict);
+		} catch (IOException e)
+		{
+			// StringWriter does not throw.
+			throw new IllegalStateException(e);
+		}
+		return res.toString();
+	}
+	
+	/**
+	 * Write in the same format as the entry was read: as PML m element or as
+	 * plain-text line.
+	 */
+	public void write(Writer out, ArrayList<String> verdict)
+	throws IOException
+	{
+		if (XML) writeXml(out, verdict);
+		else writePlain(out, verdict);
+	}
+	
+	/**
+	 * Tag as printed out: "N/A", if there are no attributes.
+	 */
+	public String getPrintedTag()
+	{
+		return attributes == null ? "N/A" : String.valueOf(getTag());
+	}
+	
+	/**
+	 * Lemma as printed out: "N/A", if there is none.
+	 */
+	public String getPrintedLemma()
+	{
+		return lemma == null ? "N/A" : lemma;
+	}
+	
+	/**
+	 * Write as tab separated plain-text line: token, tag, lemma and verdicts.
+	 */
+	public void writePlain(Writer out, ArrayList<String> verdict)
+	throws IOException
+	{
+		writePlain(out, String.valueOf(token), getPrintedTag(),
+			getPrintedLemma(), verdict);
+	}
+	
+	/**
+	 * Write plain-text line from already printable fields.
+	 */
+	public static void writePlain(
+		Writer out, String token, String tag, String lemma, List<String> verdict)
+	throws IOException
+	{
+		out.write(token);
+		out.write('\t');
+		out.write(tag);
+		out.write('\t');
+		out.write(lemma);
+		if (verdict != null) for (String v : verdict)
+		{
+			out.write('\t');
+			out.write(v);
+		}
+		out.write("\r\n");
+	}
+	
+	/**
+	 * Write as PML m element directly to the given writer. No conteiner tags
+	 * added.
+	 */
+	public void writeXml(Writer out, ArrayList<String> verdict)
+	throws IOException
+	{
+		writeXml(out, content, wRefs, String.valueOf(token), getPrintedTag(),
+			getPrintedLemma(), verdict);
+	}
+	
+	/**
+	 * Write PML m element from other content, w references and already
+	 * printable fields.
+	 */
+	public static void writeXml(
+		Writer out, CharSequence content, List<String> wRefs, String token,
+		String tag, String lemma, List<String> verdict)
+	throws IOException
+	{
+		out.append(content);
 		if (wRefs != null && wRefs.size() > 0)
 		{
-			res.append("\r\n<w.rf>");
-			if (wRefs.size() < 2) res.append(wRefs.get(0));
+			out.write("\r\n<w.rf>");
+			if (wRefs.size() < 2) out.write(wRefs.get(0));
 			else
 			{
 				for (String ref : wRefs)
 				{
-					res.append("\r\n<LM>");
-					res.append(ref);
-					res.append("</LM>");
+					out.write("\r\n<LM>");
+					out.write(ref);
+					out.write("</LM>");
 				}
-				res.append("\r\n");
+				out.write("\r\n");
 			}
-			res.append("</w.rf>");
+			out.write("</w.rf>");
 		}
 		
-		res.append("\r\n<form>");
-		res.append(token);
-		res.append("</form>\r\n<lemma>");
-		res.append(l);
-		res.append("</lemma>\r\n<tag>");
-		res.append(tag);
-		res.append("</tag>\r\n");
+		out.write("\r\n<form>");
+		out.write(token);
+		out.write("</form>\r\n<lemma>");
+		out.write(lemma);
+		out.write("</lemma>\r\n<tag>");
+		out.write(tag);
+		out.write("</tag>\r\n");
 		
 		if (verdict != null && verdict.size() > 0)
 		{
-			res.append("<errors>");
-			for (String v : verdict) res.append(v + "; ");
-			res.append("</errors>\r\n");
+			out.write("<errors>");
+			for (String v : verdict)
+			{
+				out.write(v);
+				out.write("; ");
+			}
+			out.write("</errors>\r\n");
 		}
-		res.append("</m>\r\n");
-		return res.toString();
+		out.write("</m>\r\n");
 	}
 	
 	/**
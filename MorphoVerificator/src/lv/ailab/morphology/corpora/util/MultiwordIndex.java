@@ -0,0 +1,64 @@
+package lv.ailab.morphology.corpora.util;
+
+import java.util.HashSet;
+import lv.semti.morphology.analyzer.Lexeme;
+import lv.semti.morphology.analyzer.Lexicon;
+import lv.semti.morphology.analyzer.Paradigm;
+import lv.semti.morphology.attributes.AttributeNames;
+
+/**
+ * Index of multi-token lexicon entries, used to decide which token
+ * concatenations are worth giving to the morphological analyzer. Analyzer
+ * adds endings only to the last word of the lexeme, so all words before the
+ * last are fixed and a concatenation can be recognized only if its words
+ * before the last one are the same as for some multi-token lemma.
+ * If no multi-token lemmas are found (e.g., lexemes do not carry lemma
+ * attribute), index can not tell anything and all concatenations are
+ * candidates.
+ */
+public class MultiwordIndex
+{
+	/**
+	 * Lowercased multi-token lemmas without the last word.
+	 */
+	private HashSet<String> heads = new HashSet<String>();
+	private int lexemeCount = 0;
+
+	/**
+	 * Collect multi-token lemmas from the lexicon.
+	 */
+	public MultiwordIndex(Lexicon lexicon)
+	{
+		for (Paradigm p : lexicon.paradigms)
+			for (Lexeme l : p.lexemes)
+			{
+				String lemma = l.getValue(AttributeNames.i_Lemma);
+				if (lemma == null) continue;
+				lemma = lemma.trim();
+				int lastSpace = lemma.lastIndexOf(' ');
+				if (lastSpace < 0) continue;
+				heads.add(lemma.substring(0, lastSpace).toLowerCase());
+				lexemeCount++;
+			}
+	}
+
+	/**
+	 * Can this space separated string be a multi-token lexeme? Single tokens
+	 * are always candidates, with empty index - all strings.
+	 */
+	public boolean isCandidate(String concatenation)
+	{
+		if (heads.isEmpty()) return true;
+		int lastSpace = concatenation.lastIndexOf(' ');
+		if (lastSpace < 0) return true;
+		return heads.contains(concatenation.substring(0, lastSpace).toLowerCase());
+	}
+
+	/**
+	 * Count of multi-token lexemes found in the lexicon.
+	 */
+	public int size()
+	{
+		return lexemeCount;
+	}
+}
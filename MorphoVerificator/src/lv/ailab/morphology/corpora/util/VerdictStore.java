@@ -0,0 +1,345 @@
+package lv.ailab.morphology.corpora.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Verification results from the previous run, so that only changed entries
+ * are verified again. Result of verifying the first entry of the window
+ * depends only on the entries in the window, so results are stored by the
+ * digest of the whole window: verdicts, printed token, tag and lemma and how
+ * many entries were consumed (more than one, if entries were concatenated).
+ * The rest of the printed text (other PML content, w references) is taken
+ * from the window again, thus the store stays small compared to the output.
+ *
+ * Results depend on the morphological lexicon and statistics too, so the
+ * store is used only if these files have not changed since it was saved.
+ * Saved store contains only results used or made in the current run.
+ */
+public class VerdictStore
+{
+	private static final int FORMAT_VERSION = 2;
+
+	private final String fingerprint;
+	/**
+	 * Results from the previous run.
+	 */
+	private HashMap<Key, Verdict> previous = new HashMap<Key, Verdict>();
+	/**
+	 * Results used or made in this run.
+	 */
+	private HashMap<Key, Verdict> current = new HashMap<Key, Verdict>();
+	/**
+	 * Tags, lemmas and verdicts repeat a lot, so each distinct string is kept
+	 * once.
+	 */
+	private HashMap<String, String> strings = new HashMap<String, String>();
+	private long reused = 0;
+	private long verified = 0;
+
+	/**
+	 * Load stored results, if the file exists and was made with the same
+	 * lexicon and statistics files. Unreadable store is treated as outdated.
+	 * @param dependencies	files results depend on
+	 */
+	public VerdictStore(File storeFile, File[] dependencies)
+	throws IOException
+	{
+		StringBuilder fp = new StringBuilder();
+		for (File f : dependencies)
+		{
+			fp.append(f.getName()); fp.append(':');
+			fp.append(f.length()); fp.append(':');
+			fp.append(f.lastModified()); fp.append(';');
+		}
+		fingerprint = fp.toString();
+		if (!storeFile.exists()) return;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+			new FileInputStream(storeFile)));
+		try
+		{
+			if (in.readInt() != FORMAT_VERSION
+				|| !fingerprint.equals(in.readUTF()))
+			{
+				System.out.println("Stored verdicts are outdated, all entries will be verified.");
+				return;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++)
+			{
+				Key key = new Key(in.readLong(), in.readLong());
+				previous.put(key, readVerdict(in));
+			}
+		} catch (IOException | RuntimeException e)
+		{
+			System.out.printf(
+				"Stored verdicts are unreadable (%s), all entries will be verified.\n",
+				e.toString());
+			previous.clear();
+			strings.clear();
+		} finally
+		{
+			in.close();
+		}
+	}
+	
+	private Verdict readVerdict(DataInputStream in)
+	throws IOException
+	{
+		int consumed = in.readInt();
+		if (consumed < 1) throw new IOException("Illegal entry count " + consumed + "!");
+		String token = pooled(in.readUTF());
+		String tag = pooled(in.readUTF());
+		String lemma = pooled(in.readUTF());
+		// Verdict count is not trusted for preallocation.
+		int verdictCount = in.readInt();
+		ArrayList<String> verdict = new ArrayList<String>();
+		for (int i = 0; i < verdictCount; i++) verdict.add(pooled(in.readUTF()));
+		return new Verdict(consumed, token, tag, lemma,
+			verdict.toArray(new String[verdict.size()]));
+	}
+	
+	private String pooled(String s)
+	{
+		String res = strings.get(s);
+		if (res != null) return res;
+		strings.put(s, s);
+		return s;
+	}
+
+	/**
+	 * @return	stored result for the window or null
+	 */
+	public synchronized Verdict get(Key key)
+	{
+		Verdict res = current.get(key);
+		if (res == null)
+		{
+			res = previous.get(key);
+			if (res != null) current.put(key, res);
+		}
+		if (res != null) reused++;
+		else verified++;
+		return res;
+	}
+
+	/**
+	 * Store result for the window.
+	 * @param consumed	how many entries were removed from the window
+	 * @param printed	entry printed out instead of them
+	 */
+	public synchronized void put(
+		Key key, int consumed, MorphoEntry printed, List<String> verdict)
+	{
+		String[] v = new String[verdict == null ? 0 : verdict.size()];
+		for (int i = 0; i < v.length; i++) v[i] = pooled(verdict.get(i));
+		current.put(key, new Verdict(consumed, String.valueOf(printed.token),
+			pooled(printed.getPrintedTag()), pooled(printed.getPrintedLemma()), v));
+	}
+
+	/**
+	 * Save results used or made in this run.
+	 */
+	public synchronized void save(File storeFile)
+	throws IOException
+	{
+		File tmp = new File(storeFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(tmp)));
+		try
+		{
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(fingerprint);
+			out.writeInt(current.size());
+			for (HashMap.Entry<Key, Verdict> e : current.entrySet())
+			{
+				out.writeLong(e.getKey().high);
+				out.writeLong(e.getKey().low);
+				Verdict v = e.getValue();
+				out.writeInt(v.consumed);
+				out.writeUTF(v.token);
+				out.writeUTF(v.tag);
+				out.writeUTF(v.lemma);
+				out.writeInt(v.verdict.length);
+				for (String s : v.verdict) out.writeUTF(s);
+			}
+		} finally
+		{
+			out.close();
+		}
+		if (storeFile.exists() && !storeFile.delete() || !tmp.renameTo(storeFile))
+			throw new IOException("Could not replace " + storeFile + "!");
+	}
+
+	public synchronized String getStats()
+	{
+		return String.format(
+			"Verdict store: %d entries reused, %d verified.", reused, verified);
+	}
+
+	private static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Digest string so that different sequences of strings never give the
+	 * same bytes.
+	 */
+	private static void update(MessageDigest md, String s)
+	{
+		if (s == null)
+		{
+			md.update((byte)0);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		md.update((byte)1);
+		md.update((byte)(bytes.length >>> 24));
+		md.update((byte)(bytes.length >>> 16));
+		md.update((byte)(bytes.length >>> 8));
+		md.update((byte)bytes.length);
+		md.update(bytes);
+	}
+
+	private static long toLong(byte[] b, int from)
+	{
+		long res = 0;
+		for (int i = from; i < from + 8; i++) res = (res << 8) | (b[i] & 0xff);
+		return res;
+	}
+
+	/**
+	 * Makes window digests, not thread safe.
+	 */
+	public static class Hasher
+	{
+		private final MessageDigest window = newDigest();
+		private final MessageDigest entry = newDigest();
+
+		/**
+		 * Digest of the window, entry digests are cached in entries.
+		 */
+		public Key windowKey(ArrayDeque<MorphoEntry> entries)
+		{
+			for (MorphoEntry me : entries)
+			{
+				if (me.digest == null) me.digest = entryDigest(me);
+				window.update(me.digest);
+			}
+			byte[] d = window.digest();
+			return new Key(toLong(d, 0), toLong(d, 8));
+		}
+
+		/**
+		 * Digest of all entry fields verification depends on or prints out.
+		 */
+		private byte[] entryDigest(MorphoEntry me)
+		{
+			update(entry, me.content == null ? null : me.content.toString());
+			if (me.wRefs == null) entry.update((byte)0);
+			else
+			{
+				entry.update((byte)1);
+				for (String ref : me.wRefs) update(entry, ref);
+			}
+			update(entry, me.token);
+			update(entry, me.sourceTag);
+			update(entry, me.lemma);
+			return entry.digest();
+		}
+	}
+
+	/**
+	 * Window digest.
+	 */
+	public static class Key
+	{
+		final long high, low;
+
+		Key(long high, long low)
+		{
+			this.high = high;
+			this.low = low;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) return false;
+			Key k = (Key)o;
+			return high == k.high && low == k.low;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (int)(low ^ (low >>> 32));
+		}
+	}
+
+	/**
+	 * Stored result for a single window.
+	 */
+	public static class Verdict
+	{
+		/**
+		 * How many entries were removed from the window.
+		 */
+		public final int consumed;
+		private final String token;
+		private final String tag;
+		private final String lemma;
+		private final String[] verdict;
+
+		Verdict(int consumed, String token, String tag, String lemma,
+			String[] verdict)
+		{
+			this.consumed = consumed;
+			this.token = token;
+			this.tag = tag;
+			this.lemma = lemma;
+			this.verdict = verdict;
+		}
+
+		/**
+		 * Print the result for the given window the same way it was printed,
+		 * when verified. Concatenated entry gets the content of the first
+		 * entry and w references of all consumed entries.
+		 */
+		public void write(Writer out, ArrayDeque<MorphoEntry> window)
+		throws IOException
+		{
+			MorphoEntry first = window.peekFirst();
+			List<String> v = Arrays.asList(verdict);
+			if (!first.XML)
+			{
+				MorphoEntry.writePlain(out, token, tag, lemma, v);
+				return;
+			}
+			List<String> wRefs = first.wRefs;
+			if (consumed > 1)
+			{
+				wRefs = new ArrayList<String>();
+				Iterator<MorphoEntry> it = window.iterator();
+				for (int i = 0; i < consumed; i++) wRefs.addAll(it.next().wRefs);
+			}
+			MorphoEntry.writeXml(out, first.content, wRefs, token, tag, lemma, v);
+		}
+	}
+}
@@ -0,0 +1,4 @@
+REM Each output is given as name=condition, see usage for conditions.
+java -classpath ".;lib/*" lv.ailab.parser.tools.ConllSplitter corpus.conll short=length:-10 train=length:-40+projective
+
+pause
\ No newline at end of file
@@ -0,0 +1,4 @@
+REM Folds, models and scores are written to corpus.conll.cv.
+java -classpath ".;lib/*" lv.ailab.parser.tools.MaltTrainer corpus.conll --folds 10 --threads 4 --config nivre="-a nivreeager -l liblinear" --config stack="-a stackproj -l liblinear"
+
+pause
\ No newline at end of file
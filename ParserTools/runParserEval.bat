@@ -0,0 +1,4 @@
+REM Scores are written to system.conll.score if no output file is given.
+java -classpath ".;lib/*" lv.ailab.parser.tools.ParserEval golden.conll system.conll --threads 4
+
+pause
\ No newline at end of file
@@ -0,0 +1,271 @@
+package lv.ailab.parser.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Attachment scores of a parser compared to gold data: UAS, LAS, LA, CLAS,
+ * scores for each DEPREL, for sentence length and for gold arc length
+ * buckets, and DEPREL confusion matrix. Labels are counted by IDs from one
+ * label table (system labels must be translated to it), results of
+ * different threads are combined with merge().
+ */
+public class AttachmentScores
+{
+	/**
+	 * Upper bounds (inclusive) of sentence length buckets, in tokens.
+	 */
+	protected static final int[] LENGTH_BOUNDS = {10, 20, 30, 40, Integer.MAX_VALUE};
+	/**
+	 * Upper bounds (inclusive) of gold arc length buckets, 0 is for arcs from
+	 * the root.
+	 */
+	protected static final int[] ARC_BOUNDS = {0, 1, 2, 6, Integer.MAX_VALUE};
+
+	private final LabelTable labels;
+	/**
+	 * Relations whose dependents are content words, given without subtypes.
+	 */
+	private final Set<String> contentDeprels;
+	/**
+	 * Cached content relation check for each label ID: 0 - not known yet,
+	 * 1 - content, 2 - function.
+	 */
+	private byte[] contentLabel = new byte[64];
+
+	public long total = 0;
+	/**
+	 * Gold tokens with no HEAD or DEPREL, they are not scored.
+	 */
+	public long ignored = 0;
+	public long correctHeads = 0;
+	public long correctLabels = 0;
+	public long correctBoth = 0;
+	public long goldContent = 0;
+	public long systemContent = 0;
+	public long correctContent = 0;
+
+	/**
+	 * Token counts for each gold DEPREL, tokens with correct head, with
+	 * correct head and label.
+	 */
+	public final IntHistogram goldDeprels = new IntHistogram();
+	public final IntHistogram deprelHeads = new IntHistogram();
+	public final IntHistogram deprelBoth = new IntHistogram();
+	/**
+	 * Token counts for each system DEPREL, for precision.
+	 */
+	public final IntHistogram systemDeprels = new IntHistogram();
+	/**
+	 * For each gold DEPREL counts of system DEPRELs.
+	 */
+	private IntHistogram[] confusion = new IntHistogram[64];
+
+	/**
+	 * Token count, correct heads and correct heads with labels for each
+	 * length bucket.
+	 */
+	private long[][] byLength = new long[3][LENGTH_BOUNDS.length];
+	private long[][] byArc = new long[3][ARC_BOUNDS.length];
+
+	/**
+	 * @param labels			label table for all DEPREL IDs
+	 * @param contentDeprels	relations counted for CLAS
+	 */
+	public AttachmentScores (LabelTable labels, Set<String> contentDeprels)
+	{
+		this.labels = labels;
+		this.contentDeprels = contentDeprels;
+	}
+
+	/**
+	 * Score one token.
+	 * @param sentenceLength	token count in the sentence
+	 * @param token				token number, from 1
+	 */
+	public void add(int sentenceLength, int token, int goldHead, int goldDeprel,
+			int systemHead, int systemDeprel)
+	{
+		total++;
+		boolean headOk = goldHead == systemHead;
+		boolean labelOk = goldDeprel == systemDeprel;
+		if (headOk) correctHeads++;
+		if (labelOk) correctLabels++;
+		if (headOk && labelOk) correctBoth++;
+
+		goldDeprels.add(goldDeprel);
+		if (headOk) deprelHeads.add(goldDeprel);
+		if (headOk && labelOk) deprelBoth.add(goldDeprel);
+		if (systemDeprel >= 0)
+		{
+			systemDeprels.add(systemDeprel);
+			confusionRow(goldDeprel).add(systemDeprel);
+		}
+
+		boolean goldIsContent = isContent(goldDeprel);
+		if (goldIsContent) goldContent++;
+		if (systemDeprel >= 0 && isContent(systemDeprel)) systemContent++;
+		if (goldIsContent && headOk && labelOk) correctContent++;
+
+		count(byLength, bucket(LENGTH_BOUNDS, sentenceLength), headOk, labelOk);
+		int arcLength = goldHead == 0 ? 0 : Math.abs(goldHead - token);
+		count(byArc, bucket(ARC_BOUNDS, arcLength), headOk, labelOk);
+	}
+
+	private static void count(long[][] counts, int bucket, boolean headOk, boolean labelOk)
+	{
+		counts[0][bucket]++;
+		if (headOk) counts[1][bucket]++;
+		if (headOk && labelOk) counts[2][bucket]++;
+	}
+
+	private static int bucket(int[] bounds, int value)
+	{
+		int res = 0;
+		while (value > bounds[res]) res++;
+		return res;
+	}
+
+	private IntHistogram confusionRow(int goldDeprel)
+	{
+		if (goldDeprel >= confusion.length)
+			confusion = Arrays.copyOf(confusion, Math.max(2 * confusion.length, goldDeprel + 1));
+		if (confusion[goldDeprel] == null) confusion[goldDeprel] = new IntHistogram();
+		return confusion[goldDeprel];
+	}
+
+	/**
+	 * Check if the relation (without subtype) is a content relation.
+	 */
+	private boolean isContent(int deprel)
+	{
+		if (deprel >= contentLabel.length)
+			contentLabel = Arrays.copyOf(contentLabel, Math.max(2 * contentLabel.length, deprel + 1));
+		if (contentLabel[deprel] == 0)
+		{
+			String label = labels.get(deprel);
+			int subtype = label.indexOf(':');
+			if (subtype > 0) label = label.substring(0, subtype);
+			contentLabel[deprel] = (byte)(contentDeprels.contains(label) ? 1 : 2);
+		}
+		return contentLabel[deprel] == 1;
+	}
+
+	/**
+	 * Add scores collected by another thread.
+	 */
+	public void merge(AttachmentScores other)
+	{
+		total = total + other.total;
+		ignored = ignored + other.ignored;
+		correctHeads = correctHeads + other.correctHeads;
+		correctLabels = correctLabels + other.correctLabels;
+		correctBoth = correctBoth + other.correctBoth;
+		goldContent = goldContent + other.goldContent;
+		systemContent = systemContent + other.systemContent;
+		correctContent = correctContent + other.correctContent;
+		for (int i = 0; i < 3; i++)
+			for (int j = 0; j < LENGTH_BOUNDS.length; j++)
+				byLength[i][j] = byLength[i][j] + other.byLength[i][j];
+		for (int i = 0; i < 3; i++)
+			for (int j = 0; j < ARC_BOUNDS.length; j++)
+				byArc[i][j] = byArc[i][j] + other.byArc[i][j];
+
+		// Label IDs are translated by label text.
+		int[] ids = new int[other.labels.size()];
+		for (int id = 0; id < ids.length; id++)
+			ids[id] = labels.lookup(other.labels.get(id));
+		mergeLabels(goldDeprels, other.goldDeprels, ids);
+		mergeLabels(deprelHeads, other.deprelHeads, ids);
+		mergeLabels(deprelBoth, other.deprelBoth, ids);
+		mergeLabels(systemDeprels, other.systemDeprels, ids);
+		for (int gold = 0; gold < other.confusion.length; gold++)
+			if (other.confusion[gold] != null)
+				mergeLabels(confusionRow(ids[gold]), other.confusion[gold], ids);
+	}
+
+	private static void mergeLabels(IntHistogram counts, IntHistogram otherCounts, int[] ids)
+	{
+		for (int id = 0; id < otherCounts.size(); id++)
+			if (otherCounts.get(id) > 0) counts.add(ids[id], otherCounts.get(id));
+	}
+
+	/**
+	 * Human readable report.
+	 */
+	public String getReport()
+	{
+		StringBuilder res = new StringBuilder();
+		res.append(String.format("UAS (%%) = %d / %d * 100 = %.4f\n",
+				correctHeads, total, percent(correctHeads, total)));
+		res.append(String.format("LAS (%%) = %d / %d * 100 = %.4f\n",
+				correctBoth, total, percent(correctBoth, total)));
+		res.append(String.format("LA  (%%) = %d / %d * 100 = %.4f\n",
+				correctLabels, total, percent(correctLabels, total)));
+		double precision = percent(correctContent, systemContent);
+		double recall = percent(correctContent, goldContent);
+		res.append(String.format(
+				"CLAS (%%) = %.4f (precision %d / %d, recall %d / %d)\n",
+				precision + recall > 0 ? 2 * precision * recall / (precision + recall) : 0.0,
+				correctContent, systemContent, correctContent, goldContent));
+		res.append("Ignored arcs: " + ignored + "\n");
+
+		ArrayList<Integer> deprels = new ArrayList<>();
+		for (int id = 0; id < labels.size(); id++)
+			if (goldDeprels.get(id) > 0 || systemDeprels.get(id) > 0) deprels.add(id);
+		Collections.sort(deprels, (a, b) -> labels.get(a).compareTo(labels.get(b)));
+
+		res.append("\nScores by gold DEPREL\n");
+		res.append("DEPREL\tGold\tSystem\tUAS\tLAS recall\tLAS precision\n");
+		for (int id : deprels)
+			res.append(String.format("%s\t%d\t%d\t%.2f\t%.2f\t%.2f\n",
+					labels.get(id), goldDeprels.get(id), systemDeprels.get(id),
+					percent(deprelHeads.get(id), goldDeprels.get(id)),
+					percent(deprelBoth.get(id), goldDeprels.get(id)),
+					percent(deprelBoth.get(id), systemDeprels.get(id))));
+
+		res.append("\nScores by sentence length\n");
+		appendBuckets(res, byLength, LENGTH_BOUNDS, "Length");
+		res.append("\nScores by gold arc length (0 - root)\n");
+		appendBuckets(res, byArc, ARC_BOUNDS, "Arc");
+
+		res.append("\nDEPREL confusion matrix (absolute numbers)\n");
+		res.append("Golden\\System");
+		for (int id : deprels)
+			res.append("\t" + labels.get(id));
+		res.append("\n");
+		for (int gold : deprels)
+		{
+			if (goldDeprels.get(gold) == 0) continue;
+			res.append(labels.get(gold));
+			for (int system : deprels)
+				res.append("\t" + (gold < confusion.length && confusion[gold] != null
+						? confusion[gold].get(system) : 0));
+			res.append("\n");
+		}
+		return res.toString();
+	}
+
+	private static void appendBuckets(StringBuilder res, long[][] counts,
+			int[] bounds, String title)
+	{
+		res.append(title + "\tTokens\tUAS\tLAS\n");
+		for (int i = 0; i < bounds.length; i++)
+		{
+			if (counts[0][i] == 0) continue;
+			int from = i == 0 ? Math.min(1, bounds[0]) : bounds[i - 1] + 1;
+			String label = bounds[i] == Integer.MAX_VALUE ? from + "+"
+					: from == bounds[i] ? Integer.toString(from) : from + "-" + bounds[i];
+			res.append(String.format("%s\t%d\t%.2f\t%.2f\n", label, counts[0][i],
+					percent(counts[1][i], counts[0][i]),
+					percent(counts[2][i], counts[0][i])));
+		}
+	}
+
+	private static double percent(long part, long all)
+	{
+		return all > 0 ? 100.0 * part / all : 0;
+	}
+}
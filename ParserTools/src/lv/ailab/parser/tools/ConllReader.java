@@ -0,0 +1,623 @@
+package lv.ailab.parser.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for CoNLL-X, CoNLL-U and CoNLL-2009 files. File is read
+ * memory-mapped (in windows of up to 1 GB, so files of any size can be read),
+ * only sentence boundaries are scanned and only HEAD and DEPREL columns are
+ * decoded, into primitive arrays. POS, FEATS and enhanced DEPS columns are
+ * decoded only if set with setExtraColumns(). Comment lines, CoNLL-U
+ * multiword tokens and empty nodes are skipped (only enhanced dependencies
+ * of empty nodes are read), but they are kept in the original sentence
+ * text, which can be copied to the output with writeSentence().
+ */
+public class ConllReader implements Closeable
+{
+	/**
+	 * 0-based HEAD and DEPREL column indices for CoNLL-X and CoNLL-U.
+	 */
+	public static final int CONLLX_HEAD = 6;
+	public static final int CONLLX_DEPREL = 7;
+	/**
+	 * 0-based POS (CPOSTAG or UPOS) and FEATS column indices for CoNLL-X and
+	 * CoNLL-U, DEPS column index for CoNLL-U.
+	 */
+	public static final int CONLLX_POS = 3;
+	public static final int CONLLX_FEATS = 5;
+	public static final int CONLLU_DEPS = 8;
+	/**
+	 * 0-based HEAD and DEPREL column indices for CoNLL-2009.
+	 */
+	public static final int CONLL2009_HEAD = 8;
+	public static final int CONLL2009_DEPREL = 10;
+	/**
+	 * 0-based POS and FEAT column indices for CoNLL-2009.
+	 */
+	public static final int CONLL2009_POS = 4;
+	public static final int CONLL2009_FEATS = 6;
+
+	protected static final long WINDOW_SIZE = 1L << 30;
+	/**
+	 * Recommended buffer size for writing sentences.
+	 */
+	public static final int BUFFER_SIZE = 1 << 16;
+	private static final byte[] LF = {'\n'};
+	private static final byte[] CRLF = {'\r', '\n'};
+
+	private FileChannel channel;
+	private boolean ownsChannel;
+	private long fileSize;
+	/**
+	 * Where the next sentence search starts.
+	 */
+	private long pos;
+	/**
+	 * Only sentences starting before this position are read.
+	 */
+	private long limit;
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+	private long windowEnd = 0;
+
+	private int headColumn;
+	private int deprelColumn;
+	private int posColumn = -1;
+	private int featuresColumn = -1;
+	private int depsColumn = -1;
+	/**
+	 * Last column that must be decoded.
+	 */
+	private int lastColumn;
+	/**
+	 * DEPREL values of all sentences read.
+	 */
+	public final LabelTable deprels = new LabelTable();
+	/**
+	 * POS values, features ("Name=Value") and enhanced dependency relations
+	 * of all sentences read.
+	 */
+	public final LabelTable postags = new LabelTable();
+	public final LabelTable features = new LabelTable();
+	public final LabelTable enhancedDeprels = new LabelTable();
+
+	/**
+	 * Read the whole file.
+	 */
+	public ConllReader (String fileName, int headColumn, int deprelColumn)
+	throws IOException
+	{
+		this(FileChannel.open(Paths.get(fileName), StandardOpenOption.READ),
+				0, Long.MAX_VALUE, headColumn, deprelColumn);
+		ownsChannel = true;
+	}
+
+	/**
+	 * Read sentences starting in the given part of the file. The last
+	 * sentence is read to its end, even if that is after the given part.
+	 * Channel is not closed by this reader.
+	 * @param from	start of the part, must be at a sentence boundary
+	 * @param to	end of the part
+	 */
+	public ConllReader (FileChannel channel, long from, long to,
+			int headColumn, int deprelColumn)
+	throws IOException
+	{
+		this.channel = channel;
+		ownsChannel = false;
+		fileSize = channel.size();
+		pos = from;
+		limit = Math.min(to, fileSize);
+		this.headColumn = headColumn;
+		this.deprelColumn = deprelColumn;
+		lastColumn = Math.max(headColumn, deprelColumn);
+	}
+
+	/**
+	 * Set which additional columns must be decoded, -1 for columns not
+	 * needed. Enhanced dependencies are read only from "head:relation" items,
+	 * so, e.g., CoNLL-X PHEAD column given as DEPS gives no data.
+	 */
+	public void setExtraColumns(int posColumn, int featuresColumn, int depsColumn)
+	{
+		this.posColumn = posColumn;
+		this.featuresColumn = featuresColumn;
+		this.depsColumn = depsColumn;
+		lastColumn = Math.max(Math.max(headColumn, deprelColumn),
+				Math.max(posColumn, Math.max(featuresColumn, depsColumn)));
+	}
+
+	/**
+	 * Read the next sentence.
+	 * @param sent	where to put the sentence data, null, if sentence must be
+	 * 				skipped without decoding
+	 * @return	false, if there are no more sentences
+	 */
+	public boolean readSentence(Sentence sent)
+	throws IOException
+	{
+		// Skip empty lines before the sentence.
+		while (true)
+		{
+			if (pos >= limit) return false;
+			if (!mapped(pos)) map(pos);
+			long lineEnd = findLineEnd(pos);
+			if (lineEnd < 0)
+			{
+				map(pos);
+				lineEnd = findLineEnd(pos);
+			}
+			if (!isBlank(pos, lineEnd)) break;
+			pos = lineEnd + 1;
+		}
+		// Whole sentence must fit in the window.
+		if (!parseSentence(sent))
+		{
+			map(pos);
+			if (!parseSentence(sent))
+				throw new IOException("Sentence at byte " + pos + " is too long!");
+		}
+		return true;
+	}
+
+	/**
+	 * Skip the next sentence without decoding it.
+	 * @return	false, if there are no more sentences
+	 */
+	public boolean skipSentence()
+	throws IOException
+	{
+		return readSentence(null);
+	}
+
+	/**
+	 * @return	position after the last read sentence, where the search for
+	 * 			the next sentence starts
+	 */
+	public long getPosition()
+	{
+		return pos;
+	}
+
+	/**
+	 * Write the original text of the last read sentence followed by an empty
+	 * line. Added line breaks are the same as in the sentence (LF or CRLF).
+	 */
+	public void writeSentence(Sentence sent, OutputStream out)
+	throws IOException
+	{
+		for (long i = sent.start; i < sent.end; i++)
+			out.write(window.get((int)(i - windowStart)));
+		byte[] lineBreak = LF;
+		for (long i = sent.end - 1; i >= sent.start; i--)
+			if (window.get((int)(i - windowStart)) == '\n')
+			{
+				if (i > sent.start && window.get((int)(i - 1 - windowStart)) == '\r')
+					lineBreak = CRLF;
+				break;
+			}
+		// Last sentence in the file may have no line break.
+		if (sent.end > sent.start
+				&& window.get((int)(sent.end - 1 - windowStart)) != '\n')
+			out.write(lineBreak);
+		out.write(lineBreak);
+	}
+
+	/**
+	 * Get sentence ID of the last read sentence from its CoNLL-U
+	 * "# sent_id = ..." comment.
+	 * @return	sentence ID or null, if there is no such comment
+	 */
+	public String getSentenceId(Sentence sent)
+	{
+		long lineStart = sent.start;
+		while (lineStart < sent.end)
+		{
+			long lineEnd = Math.min(findLineEnd(lineStart), sent.end);
+			int from = (int)(lineStart - windowStart);
+			int to = (int)(lineEnd - windowStart);
+			// Comments are before tokens.
+			if (window.get(from) != '#') return null;
+			byte[] bytes = new byte[to - from - 1];
+			for (int i = from + 1; i < to; i++)
+				bytes[i - from - 1] = window.get(i);
+			String comment = new String(bytes, StandardCharsets.UTF_8).trim();
+			if (comment.startsWith("sent_id"))
+			{
+				comment = comment.substring("sent_id".length()).trim();
+				if (comment.startsWith("=")) comment = comment.substring(1).trim();
+				return comment;
+			}
+			lineStart = lineEnd + 1;
+		}
+		return null;
+	}
+
+	/**
+	 * Parse sentence starting at pos, move pos after it.
+	 * @return	false, if the window ended before the sentence
+	 */
+	private boolean parseSentence(Sentence sent)
+	{
+		if (sent != null)
+		{
+			sent.clear();
+			sent.start = pos;
+		}
+		long linePos = pos;
+		while (linePos < fileSize)
+		{
+			long lineEnd = findLineEnd(linePos);
+			if (lineEnd < 0) return false;
+			if (isBlank(linePos, lineEnd))
+			{
+				if (sent != null) sent.end = linePos;
+				pos = lineEnd + 1;
+				return true;
+			}
+			if (sent != null) parseLine(sent, linePos, lineEnd);
+			linePos = lineEnd + 1;
+		}
+		// File ends without an empty line.
+		if (sent != null) sent.end = fileSize;
+		pos = fileSize;
+		return true;
+	}
+
+	/**
+	 * Parse one token line, ignore comments and multiword tokens, for empty
+	 * nodes only enhanced dependencies are read.
+	 */
+	private void parseLine(Sentence sent, long lineStart, long lineEnd)
+	{
+		int from = (int)(lineStart - windowStart);
+		int to = (int)(lineEnd - windowStart);
+		if (to > from && window.get(to - 1) == '\r') to--;
+		if (window.get(from) == '#') return;
+
+		boolean emptyNode = false;
+		int idEnd = from;
+		for (; idEnd < to && window.get(idEnd) != '\t'; idEnd++)
+		{
+			byte b = window.get(idEnd);
+			if (b == '-') return;
+			if (b == '.') emptyNode = true;
+		}
+		if (emptyNode)
+		{
+			sent.emptyNodes++;
+			if (depsColumn < 0) return;
+		}
+		else sent.addToken();
+		int token = sent.length - 1;
+
+		int column = 1;
+		int columnStart = idEnd + 1;
+		for (int i = columnStart; i <= to && column <= lastColumn; i++)
+		{
+			if (i < to && window.get(i) != '\t') continue;
+			if (column == depsColumn) parseDeps(sent, columnStart, i);
+			else if (!emptyNode)
+			{
+				if (column == headColumn) sent.heads[token] = parseInt(columnStart, i);
+				else if (column == deprelColumn && i > columnStart)
+					sent.deprels[token] = deprels.lookup(window, columnStart, i);
+				else if (column == posColumn && i > columnStart)
+					sent.postags[token] = postags.lookup(window, columnStart, i);
+				else if (column == featuresColumn)
+					parseFeatures(sent, columnStart, i);
+			}
+			column++;
+			columnStart = i + 1;
+		}
+	}
+
+	/**
+	 * Parse FEATS value: "_" or features separated by "|".
+	 */
+	private void parseFeatures(Sentence sent, int from, int to)
+	{
+		if (to - from == 1 && window.get(from) == '_') return;
+		int itemStart = from;
+		for (int i = from; i <= to; i++)
+		{
+			if (i < to && window.get(i) != '|') continue;
+			if (i > itemStart)
+				sent.addFeature(features.lookup(window, itemStart, i));
+			itemStart = i + 1;
+		}
+	}
+
+	/**
+	 * Parse DEPS value: "_" or "head:relation" items separated by "|", items
+	 * without ":" are ignored.
+	 */
+	private void parseDeps(Sentence sent, int from, int to)
+	{
+		int colon = -1;
+		for (int i = from; i <= to; i++)
+		{
+			if (i < to && window.get(i) != '|')
+			{
+				if (colon < 0 && window.get(i) == ':') colon = i;
+				continue;
+			}
+			if (colon >= 0 && colon + 1 < i)
+				sent.addEnhanced(enhancedDeprels.lookup(window, colon + 1, i));
+			colon = -1;
+		}
+	}
+
+	/**
+	 * @return	parsed number or -1, if it is not a non-negative number
+	 */
+	private int parseInt(int from, int to)
+	{
+		if (from >= to) return -1;
+		int res = 0;
+		for (int i = from; i < to; i++)
+		{
+			byte b = window.get(i);
+			if (b < '0' || b > '9') return -1;
+			res = res * 10 + (b - '0');
+		}
+		return res;
+	}
+
+	/**
+	 * @return	position of the '\n' ending the line, file size for the last
+	 * 			line, -1, if line does not end in the current window
+	 */
+	private long findLineEnd(long lineStart)
+	{
+		for (long i = lineStart; i < windowEnd; i++)
+			if (window.get((int)(i - windowStart)) == '\n') return i;
+		if (windowEnd == fileSize) return fileSize;
+		return -1;
+	}
+
+	private boolean isBlank(long from, long to)
+	{
+		for (long i = from; i < to; i++)
+		{
+			byte b = window.get((int)(i - windowStart));
+			if (b != ' ' && b != '\t' && b != '\r') return false;
+		}
+		return true;
+	}
+
+	private boolean mapped(long position)
+	{
+		return window != null && position >= windowStart && position < windowEnd;
+	}
+
+	private void map(long from)
+	throws IOException
+	{
+		windowStart = from;
+		windowEnd = Math.min(fileSize, from + WINDOW_SIZE);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+	}
+
+	public void close()
+	throws IOException
+	{
+		window = null;
+		if (ownsChannel) channel.close();
+	}
+
+	/**
+	 * Find the first sentence boundary after the given position, i.e., the
+	 * position after the first empty line that starts after it. Can be used
+	 * to split the file in parts for several readers.
+	 * @return	boundary position or file size, if there is none
+	 */
+	public static long findBoundary(FileChannel channel, long from)
+	throws IOException
+	{
+		long fileSize = channel.size();
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long bufferStart = from;
+		// Line containing the given position is not checked, as its start
+		// is not known.
+		boolean wholeLine = false;
+		boolean blank = true;
+		while (bufferStart < fileSize)
+		{
+			buffer.clear();
+			int read = channel.read(buffer, bufferStart);
+			if (read <= 0) break;
+			for (int i = 0; i < read; i++)
+			{
+				byte b = buffer.get(i);
+				if (b == '\n')
+				{
+					if (wholeLine && blank) return bufferStart + i + 1;
+					wholeLine = true;
+					blank = true;
+				}
+				else if (b != ' ' && b != '\t' && b != '\r') blank = false;
+			}
+			bufferStart = bufferStart + read;
+		}
+		return fileSize;
+	}
+
+	/**
+	 * Data of one sentence. Object is reused for the next sentence.
+	 */
+	public static class Sentence
+	{
+		/**
+		 * Number of tokens (multiword tokens and empty nodes not counted).
+		 */
+		public int length = 0;
+		/**
+		 * HEAD for each token, token i has index i - 1; -1 if HEAD is not a
+		 * number.
+		 */
+		public int[] heads = new int[64];
+		/**
+		 * DEPREL ID for each token (see ConllReader.deprels), -1 if there is
+		 * no DEPREL.
+		 */
+		public int[] deprels = new int[64];
+		/**
+		 * POS ID for each token (see ConllReader.postags), -1 if there is no
+		 * POS or it was not read.
+		 */
+		public int[] postags = new int[64];
+		/**
+		 * Feature IDs of all tokens (see ConllReader.features), in order.
+		 */
+		public int[] features = new int[64];
+		public int featureCount = 0;
+		/**
+		 * Relation IDs of all enhanced dependencies, empty nodes included (see
+		 * ConllReader.enhancedDeprels).
+		 */
+		public int[] enhancedDeprels = new int[64];
+		public int enhancedCount = 0;
+		/**
+		 * Number of CoNLL-U empty nodes.
+		 */
+		public int emptyNodes = 0;
+		/**
+		 * Position of the original sentence text in the file.
+		 */
+		public long start;
+		public long end;
+		/**
+		 * Work arrays for the projectivity check.
+		 */
+		private int[] arcOrder = new int[64];
+		private int[] arcTemp = new int[64];
+		private int[] buckets = new int[66];
+
+		protected void clear()
+		{
+			length = 0;
+			featureCount = 0;
+			enhancedCount = 0;
+			emptyNodes = 0;
+		}
+
+		/**
+		 * Add token with no HEAD, DEPREL and POS.
+		 */
+		protected void addToken()
+		{
+			if (length == heads.length)
+			{
+				heads = Arrays.copyOf(heads, 2 * length);
+				deprels = Arrays.copyOf(deprels, 2 * length);
+				postags = Arrays.copyOf(postags, 2 * length);
+			}
+			heads[length] = -1;
+			deprels[length] = -1;
+			postags[length] = -1;
+			length++;
+		}
+
+		protected void addFeature(int feature)
+		{
+			if (featureCount == features.length)
+				features = Arrays.copyOf(features, 2 * featureCount);
+			features[featureCount++] = feature;
+		}
+
+		protected void addEnhanced(int deprel)
+		{
+			if (enhancedCount == enhancedDeprels.length)
+				enhancedDeprels = Arrays.copyOf(enhancedDeprels, 2 * enhancedCount);
+			enhancedDeprels[enhancedCount++] = deprel;
+		}
+
+		/**
+		 * How many tokens are attached to the root.
+		 */
+		public int rootCount()
+		{
+			int res = 0;
+			for (int i = 0; i < length; i++)
+				if (heads[i] == 0) res++;
+			return res;
+		}
+
+		/**
+		 * Check if all arcs are projective: each token between a head and a
+		 * dependent must be dominated by the head. For a tree this holds
+		 * exactly when no two arcs cross (arcs from the root included), so
+		 * arcs are ordered by left end ascending and right end descending
+		 * (two counting sorts) and crossings are found with a stack. Takes
+		 * linear time. Arcs with invalid HEAD are ignored.
+		 */
+		public boolean isProjective()
+		{
+			if (arcOrder.length < length)
+			{
+				arcOrder = new int[heads.length];
+				arcTemp = new int[heads.length];
+				buckets = new int[heads.length + 2];
+			}
+			// Arc i goes to token i + 1.
+			int arcCount = 0;
+			for (int arc = 0; arc < length; arc++)
+				if (heads[arc] >= 0 && heads[arc] <= length && heads[arc] != arc + 1)
+					arcOrder[arcCount++] = arc;
+			sortArcs(arcOrder, arcCount, arcTemp, false);
+			sortArcs(arcTemp, arcCount, arcOrder, true);
+
+			// Stack holds nested arcs, innermost on top.
+			int[] stack = arcTemp;
+			int top = 0;
+			for (int i = 0; i < arcCount; i++)
+			{
+				int arc = arcOrder[i];
+				while (top > 0 && right(stack[top - 1]) <= left(arc)) top--;
+				if (top > 0 && right(arc) > right(stack[top - 1])) return false;
+				stack[top++] = arc;
+			}
+			return true;
+		}
+
+		/**
+		 * Stable counting sort of arcs by left end ascending or by right end
+		 * descending.
+		 */
+		private void sortArcs(int[] source, int count, int[] target, boolean byLeft)
+		{
+			Arrays.fill(buckets, 0, length + 2, 0);
+			for (int i = 0; i < count; i++)
+				buckets[sortKey(source[i], byLeft) + 1]++;
+			for (int key = 1; key < length + 2; key++)
+				buckets[key] = buckets[key] + buckets[key - 1];
+			for (int i = 0; i < count; i++)
+				target[buckets[sortKey(source[i], byLeft)]++] = source[i];
+		}
+
+		private int sortKey(int arc, boolean byLeft)
+		{
+			return byLeft ? left(arc) : length - right(arc);
+		}
+
+		private int left(int arc)
+		{
+			return Math.min(heads[arc], arc + 1);
+		}
+
+		private int right(int arc)
+		{
+			return Math.max(heads[arc], arc + 1);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package lv.ailab.parser.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Tool for splitting a CoNLL file in several subsets in one pass, e.g., for
+ * preparing parser training data. Each output is given as a name and a
+ * condition, sentence is written to every output whose condition holds.
+ */
+public final class ConllSplitter
+{
+	/**
+	 * Condition on a sentence.
+	 */
+	public interface SentencePredicate
+	{
+		/**
+		 * @param reader	reader that has just read the sentence
+		 */
+		boolean test(ConllReader reader, ConllReader.Sentence sent);
+	}
+
+	public static void main (String[] args)
+	throws IOException
+	{
+		if (args == null || args.length < 2 || !(new File (args[0])).exists())
+		{
+			System.out.println ("Tool for splitting conll file in several subsets in one pass.\n");
+			
+			System.out.println ("Usage:");
+			System.out.println ("   <filename.conll> --conll2009 <name>=<condition>[+<condition>...] ...\n");
+			
+			System.out.println ("Each sentence is written to <filename>.<name>.conll for each output whose");
+			System.out.println ("conditions all hold. Conditions:");
+			System.out.println ("   length:N-M     sentence has N to M tokens (N-, -M or N also allowed),");
+			System.out.println ("   roots:N-M      N to M tokens are attached to the root,");
+			System.out.println ("   projective     all arcs are projective,");
+			System.out.println ("   nonprojective  some arc is non-projective,");
+			System.out.println ("   deprel:A,B     sentence contains DEPREL A or B,");
+			System.out.println ("   sentid:REGEX   sent_id comment contains a match for REGEX (must be the");
+			System.out.println ("                  last condition),");
+			System.out.println ("   !CONDITION     condition does not hold.");
+			System.out.println ("   --conll2009  switch to \"large\" format (default is CoNLL-X or CoNLL-U).");
+			System.out.println ("Example: short=length:-10 train=length:-40+projective+!deprel:dep\n");
+			
+			System.out.println ("Latvian Treebank project, LUMII, 2013, provided under GPL");
+			return;
+		}
+		
+		ArrayList <String> params = new ArrayList<>(Arrays.asList(args));
+		String fileName = params.remove(0);
+		boolean conll2009 = params.remove("--conll2009");
+		
+		ConllReader reader = conll2009
+				? new ConllReader(fileName, ConllReader.CONLL2009_HEAD, ConllReader.CONLL2009_DEPREL)
+				: new ConllReader(fileName, ConllReader.CONLLX_HEAD, ConllReader.CONLLX_DEPREL);
+		String outputName = fileName;
+		if (fileName.endsWith(".conll"))
+			outputName = outputName.substring(
+				0, outputName.length() - ".conll".length());
+		
+		String[] names = new String[params.size()];
+		SentencePredicate[] predicates = new SentencePredicate[params.size()];
+		for (int i = 0; i < params.size(); i++)
+		{
+			int separator = params.get(i).indexOf('=');
+			if (separator < 1)
+				throw new IllegalArgumentException(
+						"Output \"" + params.get(i) + "\" must be given as name=condition!");
+			names[i] = params.get(i).substring(0, separator);
+			predicates[i] = parsePredicate(params.get(i).substring(separator + 1), reader);
+		}
+		
+		OutputStream[] writers = new OutputStream[names.length];
+		for (int i = 0; i < names.length; i++)
+			writers[i] = new BufferedOutputStream(
+					new FileOutputStream(outputName + "." + names[i] + ".conll"),
+					ConllReader.BUFFER_SIZE);
+		
+		long[] counts = new long[names.length];
+		long allSentences = 0;
+		ConllReader.Sentence sentence = new ConllReader.Sentence();
+		while (reader.readSentence(sentence))
+		{
+			if (sentence.length == 0) continue;
+			allSentences++;
+			for (int i = 0; i < predicates.length; i++)
+				if (predicates[i].test(reader, sentence))
+				{
+					reader.writeSentence(sentence, writers[i]);
+					counts[i]++;
+				}
+		}
+		
+		System.out.println("Proceesing " + fileName + " finished!");
+		System.out.println(allSentences + " sentences found.");
+		for (int i = 0; i < names.length; i++)
+			System.out.println(names[i] + ":\t" + counts[i]);
+		
+		reader.close();
+		for (OutputStream writer : writers)
+			writer.close();
+	}
+	
+	/**
+	 * Make predicate from conditions joined with "+", see usage for
+	 * condition syntax.
+	 * @param reader	reader for which the predicate will be used
+	 */
+	public static SentencePredicate parsePredicate (String spec, ConllReader reader)
+	{
+		ArrayList<SentencePredicate> conditions = new ArrayList<>();
+		while (true)
+		{
+			boolean negate = spec.startsWith("!");
+			if (negate) spec = spec.substring(1);
+			// Regular expression may contain "+", so it goes till the end.
+			int end = spec.startsWith("sentid:") ? spec.length() : spec.indexOf('+');
+			if (end < 0) end = spec.length();
+			SentencePredicate condition = parseCondition(spec.substring(0, end), reader);
+			if (negate) conditions.add((r, s) -> !condition.test(r, s));
+			else conditions.add(condition);
+			if (end == spec.length()) break;
+			spec = spec.substring(end + 1);
+		}
+		if (conditions.size() == 1) return conditions.get(0);
+		return (r, s) ->
+		{
+			for (SentencePredicate condition : conditions)
+				if (!condition.test(r, s)) return false;
+			return true;
+		};
+	}
+	
+	private static SentencePredicate parseCondition (String condition, ConllReader reader)
+	{
+		if (condition.equals("projective"))
+			return (r, s) -> s.isProjective();
+		if (condition.equals("nonprojective"))
+			return (r, s) -> !s.isProjective();
+		if (condition.startsWith("length:"))
+		{
+			int[] range = parseRange(condition.substring("length:".length()));
+			return (r, s) -> s.length >= range[0] && s.length <= range[1];
+		}
+		if (condition.startsWith("roots:"))
+		{
+			int[] range = parseRange(condition.substring("roots:".length()));
+			return (r, s) ->
+			{
+				int roots = s.rootCount();
+				return roots >= range[0] && roots <= range[1];
+			};
+		}
+		if (condition.startsWith("deprel:"))
+		{
+			String[] labels = condition.substring("deprel:".length()).split(",");
+			boolean[] wanted = new boolean[0];
+			for (String label : labels)
+			{
+				int id = reader.deprels.lookup(label);
+				if (id >= wanted.length) wanted = Arrays.copyOf(wanted, id + 1);
+				wanted[id] = true;
+			}
+			boolean[] deprels = wanted;
+			return (r, s) ->
+			{
+				for (int i = 0; i < s.length; i++)
+					if (s.deprels[i] >= 0 && s.deprels[i] < deprels.length
+							&& deprels[s.deprels[i]])
+						return true;
+				return false;
+			};
+		}
+		if (condition.startsWith("sentid:"))
+		{
+			Pattern pattern = Pattern.compile(condition.substring("sentid:".length()));
+			return (r, s) ->
+			{
+				String id = r.getSentenceId(s);
+				return id != null && pattern.matcher(id).find();
+			};
+		}
+		throw new IllegalArgumentException("Unknown condition \"" + condition + "\"!");
+	}
+	
+	/**
+	 * Parse "N-M", "N-", "-M" or "N".
+	 * @return	{min, max}
+	 */
+	private static int[] parseRange (String range)
+	{
+		int separator = range.indexOf('-');
+		if (separator < 0)
+		{
+			int value = Integer.parseInt(range);
+			return new int[] {value, value};
+		}
+		int min = separator == 0 ? 0 : Integer.parseInt(range.substring(0, separator));
+		int max = separator == range.length() - 1 ? Integer.MAX_VALUE
+				: Integer.parseInt(range.substring(separator + 1));
+		return new int[] {min, max};
+	}
+}
@@ -1,27 +1,38 @@
 package lv.ailab.parser.tools;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
-
-import org.maltparser.core.io.dataformat.DataFormatInstance;
-import org.maltparser.core.io.dataformat.DataFormatSpecification;
-import org.maltparser.core.symbol.trie.TrieSymbolTableHandler;
-import org.maltparser.core.syntaxgraph.DependencyGraph;
-import org.maltparser.core.syntaxgraph.node.DependencyNode;
-import org.maltparser.core.syntaxgraph.node.Root;
-import org.maltparser.core.syntaxgraph.reader.TabReader;
-import org.maltparser.core.syntaxgraph.writer.TabWriter;
-
-import org.maltparser.core.exception.MaltChainedException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 
 
 public final class ConllStats
 {
+	/**
+	 * Indices of output files.
+	 */
+	private static final int PROJ = 0, NONPROJ = 1, MULTIROOT = 2, SINGLEROOT = 3;
+	private static final String[] OUTPUT_SUFFIXES = {
+		".proj.conll", ".nonproj.conll", ".multiroot.conll", ".singleroot.conll"};
+	/**
+	 * In parallel mode file parts smaller than this are not split further.
+	 */
+	protected static final long MIN_CHUNK_SIZE = 1 << 20;
 	
 	public static void main (String[] args)
-	throws MaltChainedException
+	throws IOException
 	{
 		// TODO: Parameter check
 		if (args == null || args.length < 2 || !(new File (args[0])).exists())
@@ -29,11 +40,13 @@ public final class ConllStats
 			System.out.println ("Tool for collecting staistics about sintax graphs in conll file.\n");
 			
 			System.out.println ("Usage:");
-			System.out.println ("   <filename.conll> --nonproj --multiroot --conll2009\n");
+			System.out.println ("   <filename.conll> --nonproj --multiroot --stats --conll2009 --threads N\n");
 			
 			System.out.println ("   --nonproj    collect statistics about nonprojectivity,");
 			System.out.println ("   --multiroot  collect statistics about single/multi-rooted sentences,");
-			System.out.println ("   --conll2009  switch to \"large\" output (default is CoNLL-X).");
+			System.out.println ("   --stats      print treebank statistics (labels, arcs, depth, ...),");
+			System.out.println ("   --conll2009  switch to \"large\" format (default is CoNLL-X or CoNLL-U),");
+			System.out.println ("   --threads N  process file parts in N parallel threads (default 1).");
 			System.out.println ("All flags are optional but at least one must be present.\n");
 			
 			System.out.println ("Latvian Treebank project, LUMII, 2013, provided under GPL");
@@ -44,128 +57,318 @@ public final class ConllStats
 		String fileName = params.remove(0);
 		boolean nonproj = false;
 		boolean multiroot = false;
-		String formatFile = "conllx.xml";
+		boolean stats = false;
+		boolean conll2009 = false;
+		int threads = 1;
 		if (params.contains("--nonproj")) nonproj = true;
 		if (params.contains("--multiroot")) multiroot = true;
-		if (params.contains("--conll2009")) formatFile = "conll2009.xml";
-		
-		// Symbol table is used every now and then.
-		TrieSymbolTableHandler symbolTable = new TrieSymbolTableHandler(
-			TrieSymbolTableHandler.ADD_NEW_TO_TRIE);
-			
-		DataFormatInstance format = initDataFormat(formatFile, symbolTable);
-		
-		// Initialize CONLL reader.
-		TabReader reader = new TabReader();
-		reader.setDataFormatInstance(format);
-		reader.open(fileName, "UTF-8");
+		if (params.contains("--stats")) stats = true;
+		if (params.contains("--conll2009")) conll2009 = true;
+		int threadsIndex = params.indexOf("--threads");
+		if (threadsIndex >= 0)
+		{
+			if (threadsIndex + 1 < params.size())
+				threads = Integer.parseInt(params.get(threadsIndex + 1));
+			if (threads < 1)
+				throw new IllegalArgumentException("Illegal thread count!");
+		}
 		
 		// Initialize CONLL writters.
-		TabWriter projWriter = null, nonprojWriter = null;
-		TabWriter multirtWriter = null, singlertWriter = null;
+		OutputStream[] writers = new OutputStream[OUTPUT_SUFFIXES.length];
 		String outputName = fileName;
 		if (fileName.endsWith(".conll"))
 			outputName = outputName.substring(
 				0, outputName.length() - ".conll".length());
 		if (nonproj)
 		{
-			projWriter = initWritter(format, outputName + ".proj.conll");
-			nonprojWriter = initWritter(format, outputName + ".nonproj.conll");
+			writers[PROJ] = initWritter(outputName + OUTPUT_SUFFIXES[PROJ]);
+			writers[NONPROJ] = initWritter(outputName + OUTPUT_SUFFIXES[NONPROJ]);
 		}
 		if (multiroot)
 		{
-			multirtWriter = initWritter(format, outputName + ".multiroot.conll");
-			singlertWriter = initWritter(format, outputName + ".singleroot.conll");
+			writers[MULTIROOT] = initWritter(outputName + OUTPUT_SUFFIXES[MULTIROOT]);
+			writers[SINGLEROOT] = initWritter(outputName + OUTPUT_SUFFIXES[SINGLEROOT]);
 		}
 		
-		int projGraphs = 0, nonprojGraphs = 0;
-		int multirtGraphs = 0, singlertGraphs = 0;
-		int allGraphs = 0;
+		ChunkResult res;
+		FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		if (threads == 1)
+		{
+			// Process all trees one by one.
+			ConllReader reader = openReader(channel, 0, channel.size(), conll2009, stats);
+			res = processSentences(reader, writers, stats);
+			reader.close();
+			channel.close();
+		}
+		else
+		{
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try
+			{
+				long chunkSize = Math.max(MIN_CHUNK_SIZE, channel.size() / threads / 4);
+				res = pool.invoke(new ChunkTask(
+						channel, 0, channel.size(), chunkSize, conll2009,
+						nonproj, multiroot, stats));
+				res.write(writers);
+			}
+			catch (UncheckedIOException e)
+			{
+				throw e.getCause();
+			}
+			finally
+			{
+				pool.shutdown();
+				channel.close();
+			}
+		}
 		
-		// Process all trees one by one.
-		DependencyGraph inputGraph = new DependencyGraph(symbolTable);
-		boolean hasNext = true;
-		while (hasNext)
+		// Print stats.
+		Counts counts = res.counts;
+		System.out.println("Proceesing " + fileName + " finished!");
+		System.out.println(counts.all + " sentences found.");
+		System.out.println("Projective:      " + counts.proj);
+		System.out.println("Non-projective:  " + counts.nonproj);
+		System.out.println("Single-rooted:   " + counts.singleroot);
+		System.out.println("Multi-rooted:    " + counts.multiroot);
+		if (stats) System.out.print(res.stats.getSummary());
+
+		// Close all data streams.
+		for (OutputStream writer : writers)
+			if (writer != null) writer.close();
+	}
+	
+	/**
+	 * Make reader for the given part of the file, extra columns are decoded
+	 * only if treebank statistics are needed.
+	 */
+	private static ConllReader openReader (FileChannel channel, long from,
+			long to, boolean conll2009, boolean stats)
+	throws IOException
+	{
+		ConllReader reader;
+		if (conll2009)
+		{
+			reader = new ConllReader(channel, from, to,
+					ConllReader.CONLL2009_HEAD, ConllReader.CONLL2009_DEPREL);
+			if (stats) reader.setExtraColumns(
+					ConllReader.CONLL2009_POS, ConllReader.CONLL2009_FEATS, -1);
+		}
+		else
+		{
+			reader = new ConllReader(channel, from, to,
+					ConllReader.CONLLX_HEAD, ConllReader.CONLLX_DEPREL);
+			if (stats) reader.setExtraColumns(ConllReader.CONLLX_POS,
+					ConllReader.CONLLX_FEATS, ConllReader.CONLLU_DEPS);
+		}
+		return reader;
+	}
+	
+	/**
+	 * Count and sort all sentences from the reader.
+	 * @param writers	where to write sentences of each kind, null for kinds
+	 * 					not needed
+	 * @param stats		whether to collect treebank statistics
+	 */
+	private static ChunkResult processSentences (
+			ConllReader reader, OutputStream[] writers, boolean stats)
+	throws IOException
+	{
+		ChunkResult res = new ChunkResult();
+		Counts counts = res.counts;
+		if (stats) res.stats = new TreebankStats(reader);
+		ConllReader.Sentence sentence = new ConllReader.Sentence();
+		while (reader.readSentence(sentence))
 		{
-			hasNext = reader.readSentence(inputGraph);
-			if (inputGraph.hasTokens())
+			if (sentence.length > 0)
 			{
-				allGraphs++;
+				counts.all++;
+				if (stats) res.stats.add(sentence);
 				
-				if (nonproj)
+				if (writers[PROJ] != null)
 				{
-					if (inputGraph.isProjective())
+					if (sentence.isProjective())
 					{
-						projWriter.writeSentence(inputGraph);
-						projGraphs++;
+						reader.writeSentence(sentence, writers[PROJ]);
+						counts.proj++;
 					}
 					else
 					{
-						nonprojWriter.writeSentence(inputGraph);
-						nonprojGraphs++;
+						reader.writeSentence(sentence, writers[NONPROJ]);
+						counts.nonproj++;
 					}
 				}
 				
-				if (multiroot)
+				if (writers[MULTIROOT] != null)
 				{
-					Root root = (Root)inputGraph.getDependencyRoot();
-					if (inputGraph.isSingleHeaded() &&
-						root.getLeftDependentCount() + root.getRightDependentCount() == 1)
+					if (sentence.rootCount() == 1)
 					{
-						singlertWriter.writeSentence(inputGraph);
-						singlertGraphs++;
+						reader.writeSentence(sentence, writers[SINGLEROOT]);
+						counts.singleroot++;
 					}
 					else
 					{
-						multirtWriter.writeSentence(inputGraph);
-						multirtGraphs++;
+						reader.writeSentence(sentence, writers[MULTIROOT]);
+						counts.multiroot++;
 					}
 				}		
 			}
 		}
+		return res;
+	}
+	
+	private static OutputStream initWritter (String fileName)
+	throws IOException
+	{
+		return new BufferedOutputStream(
+			new FileOutputStream(fileName), ConllReader.BUFFER_SIZE);
+	}
+	
+	/**
+	 * Sentence counts.
+	 */
+	private static class Counts
+	{
+		int all = 0, proj = 0, nonproj = 0, multiroot = 0, singleroot = 0;
 		
-		// Print stats.
-		System.out.println("Proceesing " + fileName + " finished!");
-		System.out.println(allGraphs + " sentences found.");
-		System.out.println("Projective:      " + projGraphs);
-		System.out.println("Non-projective:  " + nonprojGraphs);
-		System.out.println("Single-rooted:   " + singlertGraphs);
-		System.out.println("Multi-rooted:    " + multirtGraphs);
-
-		// Close all data streams.
-		reader.close();
-		if (nonproj)
-		{
-			projWriter.close();
-			nonprojWriter.close();
-
-		}
-		if (multiroot)
+		void add (Counts other)
 		{
-			multirtWriter.close();
-			singlertWriter.close();
+			all = all + other.all;
+			proj = proj + other.proj;
+			nonproj = nonproj + other.nonproj;
+			multiroot = multiroot + other.multiroot;
+			singleroot = singleroot + other.singleroot;
 		}
 	}
 	
-	private static DataFormatInstance initDataFormat (
-		String formatFile, TrieSymbolTableHandler symbolTable)
-	throws MaltChainedException
+	/**
+	 * Result of processing a part of the file: counts, treebank statistics
+	 * (if needed) and, for each output, temporary files with sentences of that
+	 * kind, in original order.
+	 */
+	private static class ChunkResult
 	{
-		// Initialize CONLL data format.
-		DataFormatSpecification spec = new DataFormatSpecification();
-		spec.parseDataFormatXMLfile(formatFile);
-		DataFormatInstance instance = 
-			spec.createDataFormatInstance(symbolTable, "none");
-		return instance;
+		Counts counts = new Counts();
+		TreebankStats stats = null;
+		List<List<File>> parts = new ArrayList<>(OUTPUT_SUFFIXES.length);
+		
+		ChunkResult ()
+		{
+			for (int i = 0; i < OUTPUT_SUFFIXES.length; i++)
+				parts.add(new ArrayList<File>());
+		}
+		
+		/**
+		 * Add result of the next part of the file.
+		 */
+		void add (ChunkResult next)
+		{
+			counts.add(next.counts);
+			if (stats != null) stats.merge(next.stats);
+			for (int i = 0; i < parts.size(); i++)
+				parts.get(i).addAll(next.parts.get(i));
+		}
+		
+		/**
+		 * Copy temporary files to outputs and delete them.
+		 */
+		void write (OutputStream[] writers)
+		throws IOException
+		{
+			byte[] buffer = new byte[ConllReader.BUFFER_SIZE];
+			for (int i = 0; i < parts.size(); i++)
+				for (File part : parts.get(i))
+				{
+					FileInputStream in = new FileInputStream(part);
+					try
+					{
+						int read;
+						while ((read = in.read(buffer)) > 0)
+							writers[i].write(buffer, 0, read);
+					}
+					finally
+					{
+						in.close();
+					}
+					part.delete();
+				}
+		}
 	}
 	
-	private static TabWriter initWritter (
-		DataFormatInstance format, String fileName)
-	throws MaltChainedException
+	/**
+	 * Processes sentences starting in the given part of the file. Parts
+	 * larger than chunk size are split in two at a sentence boundary.
+	 */
+	private static class ChunkTask extends RecursiveTask<ChunkResult>
 	{
-		TabWriter writer = new TabWriter();
-		writer.setDataFormatInstance(format);
-		writer.open(fileName, "UTF-8");
-		return writer;	
+		private static final long serialVersionUID = 1L;
+		
+		private final FileChannel channel;
+		private final long from, to, chunkSize;
+		private final boolean conll2009, nonproj, multiroot, stats;
+		
+		ChunkTask (FileChannel channel, long from, long to, long chunkSize,
+				boolean conll2009, boolean nonproj, boolean multiroot, boolean stats)
+		{
+			this.channel = channel;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+			this.conll2009 = conll2009;
+			this.nonproj = nonproj;
+			this.multiroot = multiroot;
+			this.stats = stats;
+		}
+		
+		protected ChunkResult compute ()
+		{
+			try
+			{
+				long middle = to - from > chunkSize
+						? ConllReader.findBoundary(channel, from + (to - from) / 2)
+						: to;
+				if (middle >= to) return processChunk();
+				
+				ChunkTask second = new ChunkTask(channel, middle, to, chunkSize,
+						conll2009, nonproj, multiroot, stats);
+				second.fork();
+				ChunkResult res = new ChunkTask(channel, from, middle, chunkSize,
+						conll2009, nonproj, multiroot, stats).compute();
+				res.add(second.join());
+				return res;
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		private ChunkResult processChunk ()
+		throws IOException
+		{
+			File[] parts = new File[OUTPUT_SUFFIXES.length];
+			OutputStream[] writers = new OutputStream[OUTPUT_SUFFIXES.length];
+			for (int i = 0; i < writers.length; i++)
+			{
+				if (i == PROJ || i == NONPROJ ? !nonproj : !multiroot) continue;
+				parts[i] = File.createTempFile("conllstats", OUTPUT_SUFFIXES[i]);
+				parts[i].deleteOnExit();
+				writers[i] = initWritter(parts[i].getPath());
+			}
+			ConllReader reader = openReader(channel, from, to, conll2009, stats);
+			ChunkResult res;
+			try
+			{
+				res = processSentences(reader, writers, stats);
+				for (int i = 0; i < parts.length; i++)
+					if (parts[i] != null) res.parts.get(i).add(parts[i]);
+			}
+			finally
+			{
+				reader.close();
+				for (OutputStream writer : writers)
+					if (writer != null) writer.close();
+			}
+			return res;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,73 @@
+package lv.ailab.parser.tools;
+
+import java.util.Arrays;
+
+/**
+ * Counts for small non-negative integer keys (label IDs, lengths, depths),
+ * kept in a primitive array, so memory use does not grow with the corpus.
+ */
+public class IntHistogram
+{
+	private long[] counts = new long[16];
+	/**
+	 * Largest key used + 1.
+	 */
+	private int size = 0;
+	private long total = 0;
+
+	public void add(int key)
+	{
+		add(key, 1);
+	}
+
+	public void add(int key, long count)
+	{
+		if (key >= counts.length)
+			counts = Arrays.copyOf(counts, Math.max(2 * counts.length, key + 1));
+		counts[key] = counts[key] + count;
+		if (key >= size) size = key + 1;
+		total = total + count;
+	}
+
+	public long get(int key)
+	{
+		return key < size ? counts[key] : 0;
+	}
+
+	/**
+	 * @return	largest key used + 1
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return	sum of all counts
+	 */
+	public long total()
+	{
+		return total;
+	}
+
+	/**
+	 * @return	mean key value
+	 */
+	public double mean()
+	{
+		if (total == 0) return 0;
+		double sum = 0;
+		for (int key = 0; key < size; key++)
+			sum = sum + (double)key * counts[key];
+		return sum / total;
+	}
+
+	/**
+	 * Add all counts from the other histogram.
+	 */
+	public void merge(IntHistogram other)
+	{
+		for (int key = 0; key < other.size; key++)
+			if (other.counts[key] > 0) add(key, other.counts[key]);
+	}
+}
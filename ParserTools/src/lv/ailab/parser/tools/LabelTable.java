@@ -0,0 +1,108 @@
+package lv.ailab.parser.tools;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Dictionary giving a small integer for each distinct label (DEPREL, POS,
+ * ...), so that labels can be kept in primitive arrays. Labels are looked up
+ * directly from the bytes of the input, no String is made for labels already
+ * seen. Not thread safe, each reader has its own table.
+ */
+public class LabelTable
+{
+	private byte[][] labels = new byte[64][];
+	private String[] strings = new String[64];
+	private int[] hashes = new int[64];
+	private int count = 0;
+	/**
+	 * Open addressing hash table, label ID + 1 or 0 for empty slots.
+	 */
+	private int[] slots = new int[128];
+
+	public int size()
+	{
+		return count;
+	}
+
+	/**
+	 * Get ID for the label in the given part of the buffer, add the label,
+	 * if it is new.
+	 * @param from	first byte of the label
+	 * @param to	position after the last byte of the label
+	 */
+	public int lookup(ByteBuffer buffer, int from, int to)
+	{
+		int hash = 1;
+		for (int i = from; i < to; i++)
+			hash = 31 * hash + buffer.get(i);
+		int slot = hash & (slots.length - 1);
+		while (slots[slot] != 0)
+		{
+			int id = slots[slot] - 1;
+			if (hashes[id] == hash && equals(labels[id], buffer, from, to))
+				return id;
+			slot = (slot + 1) & (slots.length - 1);
+		}
+		byte[] label = new byte[to - from];
+		for (int i = from; i < to; i++)
+			label[i - from] = buffer.get(i);
+		return add(label, hash, slot);
+	}
+
+	/**
+	 * Get ID for the given label, add the label, if it is new.
+	 */
+	public int lookup(String label)
+	{
+		byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+		return lookup(ByteBuffer.wrap(bytes), 0, bytes.length);
+	}
+
+	/**
+	 * Get label by its ID.
+	 */
+	public String get(int id)
+	{
+		if (strings[id] == null)
+			strings[id] = new String(labels[id], StandardCharsets.UTF_8);
+		return strings[id];
+	}
+
+	private int add(byte[] label, int hash, int slot)
+	{
+		if (count == labels.length)
+		{
+			labels = Arrays.copyOf(labels, 2 * count);
+			strings = Arrays.copyOf(strings, 2 * count);
+			hashes = Arrays.copyOf(hashes, 2 * count);
+		}
+		int id = count++;
+		labels[id] = label;
+		hashes[id] = hash;
+		slots[slot] = id + 1;
+		// Keep table at most half full.
+		if (2 * count > slots.length) rehash();
+		return id;
+	}
+
+	private void rehash()
+	{
+		slots = new int[2 * slots.length];
+		for (int id = 0; id < count; id++)
+		{
+			int slot = hashes[id] & (slots.length - 1);
+			while (slots[slot] != 0) slot = (slot + 1) & (slots.length - 1);
+			slots[slot] = id + 1;
+		}
+	}
+
+	private static boolean equals(byte[] label, ByteBuffer buffer, int from, int to)
+	{
+		if (label.length != to - from) return false;
+		for (int i = 0; i < label.length; i++)
+			if (label[i] != buffer.get(from + i)) return false;
+		return true;
+	}
+}
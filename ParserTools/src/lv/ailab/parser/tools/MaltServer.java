@@ -0,0 +1,98 @@
+package lv.ailab.parser.tools;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.maltparser.core.exception.MaltChainedException;
+
+/**
+ * Socket server for MaltWrapper: several client processes can share one
+ * loaded model instead of each starting its own JVM. Each connection speaks
+ * the same protocol as MaltWrapper's stdin/stdout (UTF-8 CoNLL sentences,
+ * two empty lines end the connection) and gets its own handling thread, but
+ * parsing is done by the shared parser pools, so the pool size limits how many
+ * sentences are parsed at once.
+ * Server listens on the loopback interface only.
+ */
+public class MaltServer
+{
+	private ModelRouter models;
+	private int port;
+	private ExecutorService connections;
+
+	public MaltServer (ModelRouter models, int port)
+	{
+		this.models = models;
+		this.port = port;
+		connections = Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Accept connections until the process is stopped.
+	 */
+	public void run()
+	throws IOException
+	{
+		ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		System.err.println ("MaltServer listening on port " + server.getLocalPort() + ".");
+		try
+		{
+			while (true)
+			{
+				final Socket client = server.accept();
+				connections.execute(new Runnable()
+				{
+					public void run()
+					{
+						serveClient(client);
+					}
+				});
+			}
+		}
+		finally
+		{
+			server.close();
+			connections.shutdown();
+		}
+	}
+
+	/**
+	 * Serve one client connection, problems with it do not affect other
+	 * clients.
+	 */
+	protected void serveClient(Socket client)
+	{
+		String clientName = client.getRemoteSocketAddress().toString();
+		System.err.println ("Client " + clientName + " connected.");
+		try
+		{
+			MaltWrapper.serve(models,
+					new InputStreamReader(client.getInputStream(), "UTF-8"),
+					new OutputStreamWriter(client.getOutputStream(), "UTF-8"));
+		}
+		catch (IOException | MaltChainedException e)
+		{
+			System.err.println ("Client " + clientName + " failed:");
+			e.printStackTrace();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			try
+			{
+				client.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+		System.err.println ("Client " + clientName + " disconnected.");
+	}
+}
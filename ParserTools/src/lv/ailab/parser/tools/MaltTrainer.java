@@ -0,0 +1,400 @@
+package lv.ailab.parser.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Harness for k-fold cross-validation of MaltParser configurations. Treebank
+ * is split in k folds once, then for each configuration and fold a model is
+ * trained on the other folds and the held-out fold is parsed and scored.
+ * Each fold runs MaltParser in a separate JVM in its own working directory
+ * (MaltParser keeps global state, so it can not train several models in one
+ * process), and a bounded number of folds run at once. Scores of all folds
+ * are merged for each configuration, and the best configuration (by LAS) is
+ * trained on the whole treebank.
+ * Treebank must be in a format MaltParser accepts (CoNLL-X by default).
+ */
+public final class MaltTrainer
+{
+	/**
+	 * MaltParser processes still running, they are destroyed if this JVM is
+	 * stopped (e.g., with Ctrl-C), so that training does not go on without
+	 * the harness.
+	 */
+	private static final Set<Process> running = ConcurrentHashMap.newKeySet();
+	static
+	{
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			for (Process p : running) p.destroyForcibly();
+		}, "MaltTrainer-cleanup"));
+	}
+
+	private final File treebank;
+	private final File workDir;
+	private final int folds;
+	private final String modelName;
+	private final List<String> jvmOptions;
+
+	public MaltTrainer (File treebank, File workDir, int folds,
+			String modelName, List<String> jvmOptions)
+	{
+		if (folds < 2)
+			throw new IllegalArgumentException("Illegal fold count " + folds + "!");
+		this.treebank = treebank.getAbsoluteFile();
+		this.workDir = workDir.getAbsoluteFile();
+		this.folds = folds;
+		this.modelName = modelName;
+		this.jvmOptions = jvmOptions;
+	}
+
+	public static void main (String[] args)
+	throws IOException, InterruptedException
+	{
+		if (args == null || args.length < 1 || !(new File (args[0])).exists())
+		{
+			System.out.println ("Tool for choosing MaltParser configuration with k-fold cross-validation.\n");
+			
+			System.out.println ("Usage:");
+			System.out.println ("   <treebank.conll> --folds K --threads T --workdir D --model M");
+			System.out.println ("   --jvm \"O\" --config name=\"options\" ...\n");
+			
+			System.out.println ("   --folds K    number of folds (default 10),");
+			System.out.println ("   --threads T  how many MaltParser processes run at once (default is");
+			System.out.println ("                number of processors),");
+			System.out.println ("   --workdir D  where to put folds, models and scores (default is");
+			System.out.println ("                <treebank>.cv),");
+			System.out.println ("   --model M    name of the final model (default \"model\"),");
+			System.out.println ("   --jvm O      JVM options for MaltParser processes, e.g., \"-Xmx4g\",");
+			System.out.println ("   --config     MaltParser learning options to evaluate, e.g.,");
+			System.out.println ("                nivre=\"-a nivreeager -l liblinear\", may be repeated");
+			System.out.println ("                (default is liblinear=\"-l liblinear\").");
+			System.out.println ("Best configuration is trained on the whole treebank, model is saved in");
+			System.out.println ("<workdir>/best, scores in <workdir>/report.txt.\n");
+			
+			System.out.println ("Latvian Treebank project, LUMII, 2013-now, provided under GPL");
+			return;
+		}
+		
+		ArrayList <String> params = new ArrayList<>(Arrays.asList(args));
+		File treebank = new File(params.remove(0));
+		int folds = 10;
+		int threads = Runtime.getRuntime().availableProcessors();
+		File workDir = new File(treebank.getPath() + ".cv");
+		String modelName = "model";
+		List<String> jvmOptions = new ArrayList<>();
+		LinkedHashMap<String, List<String>> configs = new LinkedHashMap<>();
+		while (!params.isEmpty())
+		{
+			String param = params.remove(0);
+			if (params.isEmpty()) badArgs(param);
+			String value = params.remove(0);
+			if (param.equals("--folds")) folds = Integer.parseInt(value);
+			else if (param.equals("--threads")) threads = Integer.parseInt(value);
+			else if (param.equals("--workdir")) workDir = new File(value);
+			else if (param.equals("--model")) modelName = value;
+			else if (param.equals("--jvm")) jvmOptions = splitOptions(value);
+			else if (param.equals("--config"))
+			{
+				int separator = value.indexOf('=');
+				if (separator < 1) badArgs(param);
+				configs.put(value.substring(0, separator),
+						splitOptions(value.substring(separator + 1)));
+			}
+			else badArgs(param);
+		}
+		if (threads < 1)
+			throw new IllegalArgumentException("Illegal thread count " + threads + "!");
+		if (configs.isEmpty()) configs.put("liblinear", splitOptions("-l liblinear"));
+		
+		MaltTrainer trainer = new MaltTrainer(treebank, workDir, folds, modelName, jvmOptions);
+		System.out.println("Splitting " + treebank + " in " + folds + " folds.");
+		trainer.splitFolds();
+		LinkedHashMap<String, AttachmentScores[]> scores = trainer.crossValidate(configs, threads);
+		
+		String best = null;
+		double bestLas = -1;
+		StringBuilder report = new StringBuilder();
+		report.append("Config\tUAS\tLAS\tLAS by fold\n");
+		for (Map.Entry<String, AttachmentScores[]> config : scores.entrySet())
+		{
+			AttachmentScores all = null;
+			StringBuilder byFold = new StringBuilder();
+			for (AttachmentScores fold : config.getValue())
+			{
+				byFold.append(String.format(" %.2f", las(fold)));
+				if (all == null) all = fold;
+				else all.merge(fold);
+			}
+			report.append(String.format("%s\t%.2f\t%.2f\t%s\n", config.getKey(),
+					uas(all), las(all), byFold.toString().trim()));
+			if (las(all) > bestLas)
+			{
+				best = config.getKey();
+				bestLas = las(all);
+			}
+		}
+		report.append("Best: " + best + "\n");
+		System.out.print(report);
+		Writer out = new OutputStreamWriter(
+				new FileOutputStream(new File(workDir, "report.txt")), "UTF-8");
+		try
+		{
+			out.write(report.toString());
+		}
+		finally
+		{
+			out.close();
+		}
+		
+		System.out.println("Training " + best + " on the whole treebank.");
+		File model = trainer.trainFinal(configs.get(best));
+		System.out.println("Model saved in " + model + ".");
+	}
+	
+	/**
+	 * Write test and training files for each fold: sentence i goes to the
+	 * test file of fold i mod k and to training files of all other folds.
+	 */
+	public void splitFolds()
+	throws IOException
+	{
+		OutputStream[] tests = new OutputStream[folds];
+		OutputStream[] trains = new OutputStream[folds];
+		for (int fold = 0; fold < folds; fold++)
+		{
+			File dir = foldDir(fold);
+			dir.mkdirs();
+			tests[fold] = new BufferedOutputStream(new FileOutputStream(
+					new File(dir, "test.conll")), ConllReader.BUFFER_SIZE);
+			trains[fold] = new BufferedOutputStream(new FileOutputStream(
+					new File(dir, "train.conll")), ConllReader.BUFFER_SIZE);
+		}
+		ConllReader reader = new ConllReader(treebank.getPath(),
+				ConllReader.CONLLX_HEAD, ConllReader.CONLLX_DEPREL);
+		try
+		{
+			ConllReader.Sentence sentence = new ConllReader.Sentence();
+			int index = 0;
+			while (reader.readSentence(sentence))
+			{
+				if (sentence.length == 0) continue;
+				for (int fold = 0; fold < folds; fold++)
+					reader.writeSentence(sentence,
+							fold == index % folds ? tests[fold] : trains[fold]);
+				index++;
+			}
+			if (index < folds)
+				throw new IOException("Treebank has only " + index + " sentences!");
+		}
+		finally
+		{
+			reader.close();
+			for (int fold = 0; fold < folds; fold++)
+			{
+				tests[fold].close();
+				trains[fold].close();
+			}
+		}
+	}
+	
+	/**
+	 * Train and score all configurations on all folds, splitFolds() must be
+	 * called before.
+	 * @param configs	MaltParser learning options for each configuration
+	 * @param threads	how many folds to run at once
+	 * @return	scores of each fold for each configuration
+	 */
+	public LinkedHashMap<String, AttachmentScores[]> crossValidate (
+			Map<String, List<String>> configs, int threads)
+	throws IOException, InterruptedException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try
+		{
+			LinkedHashMap<String, List<Future<AttachmentScores>>> jobs = new LinkedHashMap<>();
+			for (Map.Entry<String, List<String>> config : configs.entrySet())
+			{
+				List<Future<AttachmentScores>> foldJobs = new ArrayList<>(folds);
+				for (int fold = 0; fold < folds; fold++)
+				{
+					final int f = fold;
+					foldJobs.add(pool.submit(
+							() -> runFold(config.getKey(), config.getValue(), f)));
+				}
+				jobs.put(config.getKey(), foldJobs);
+			}
+			
+			LinkedHashMap<String, AttachmentScores[]> res = new LinkedHashMap<>();
+			for (Map.Entry<String, List<Future<AttachmentScores>>> config : jobs.entrySet())
+			{
+				AttachmentScores[] foldScores = new AttachmentScores[folds];
+				for (int fold = 0; fold < folds; fold++)
+					foldScores[fold] = config.getValue().get(fold).get();
+				res.put(config.getKey(), foldScores);
+			}
+			return res;
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Train a model on training part of the fold, parse and score the test
+	 * part.
+	 */
+	protected AttachmentScores runFold (String configName, List<String> options, int fold)
+	throws IOException, InterruptedException
+	{
+		File dir = new File(new File(workDir, configName), "fold" + fold);
+		dir.mkdirs();
+		File train = new File(foldDir(fold), "train.conll");
+		File test = new File(foldDir(fold), "test.conll");
+		File parsed = new File(dir, "parsed.conll");
+		
+		System.out.println("Started " + configName + ", fold " + fold + ".");
+		runMalt(dir, options, "-c", modelName, "-i", train.getPath(), "-m", "learn");
+		runMalt(dir, new ArrayList<String>(), "-c", modelName, "-i", test.getPath(),
+				"-o", parsed.getPath(), "-m", "parse");
+		
+		FileChannel gold = FileChannel.open(test.toPath(), StandardOpenOption.READ);
+		FileChannel system = FileChannel.open(parsed.toPath(), StandardOpenOption.READ);
+		try
+		{
+			AttachmentScores scores = ParserEval.evaluate(gold, 0, gold.size(),
+					system, 0, system.size(), false,
+					new HashSet<>(Arrays.asList(ParserEval.UD_CONTENT_DEPRELS)));
+			System.out.println(String.format("Finished %s, fold %d: LAS %.2f.",
+					configName, fold, las(scores)));
+			return scores;
+		}
+		finally
+		{
+			gold.close();
+			system.close();
+		}
+	}
+	
+	/**
+	 * Train the final model on the whole treebank.
+	 * @return	model file
+	 */
+	public File trainFinal (List<String> options)
+	throws IOException, InterruptedException
+	{
+		File dir = new File(workDir, "best");
+		dir.mkdirs();
+		File input = new File(dir, "train.conll");
+		Files.copy(treebank.toPath(), input.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		runMalt(dir, options, "-c", modelName, "-i", input.getPath(), "-m", "learn");
+		return new File(dir, modelName + ".mco");
+	}
+	
+	/**
+	 * Run MaltParser in a new JVM with the same classpath, output goes to
+	 * malt.log in the working directory. If the waiting thread is
+	 * interrupted (a fold has failed or the harness is stopped), the process
+	 * is destroyed.
+	 */
+	protected void runMalt (File dir, List<String> options, String... args)
+	throws IOException, InterruptedException
+	{
+		ArrayList<String> command = new ArrayList<>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.addAll(jvmOptions);
+		command.add("-cp");
+		command.add(absoluteClassPath());
+		command.add("org.maltparser.Malt");
+		command.addAll(Arrays.asList(args));
+		command.addAll(options);
+		
+		File log = new File(dir, "malt.log");
+		Process process = new ProcessBuilder(command).directory(dir)
+				.redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.appendTo(log))
+				.start();
+		running.add(process);
+		int exitCode;
+		try
+		{
+			exitCode = process.waitFor();
+		}
+		catch (InterruptedException e)
+		{
+			process.destroyForcibly();
+			throw e;
+		}
+		finally
+		{
+			running.remove(process);
+		}
+		if (exitCode != 0)
+			throw new IOException("MaltParser failed in " + dir + " with exit code "
+					+ exitCode + ", see " + log + "!");
+	}
+	
+	/**
+	 * Classpath of this JVM with absolute paths, so it works from other
+	 * working directories.
+	 */
+	protected static String absoluteClassPath ()
+	{
+		String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+		for (int i = 0; i < entries.length; i++)
+			entries[i] = new File(entries[i]).getAbsolutePath();
+		return String.join(File.pathSeparator, entries);
+	}
+	
+	protected File foldDir (int fold)
+	{
+		return new File(new File(workDir, "folds"), "fold" + fold);
+	}
+	
+	protected static List<String> splitOptions (String options)
+	{
+		if (options.trim().isEmpty()) return new ArrayList<>();
+		return Arrays.asList(options.trim().split("\\s+"));
+	}
+	
+	private static double uas (AttachmentScores scores)
+	{
+		return scores.total > 0 ? 100.0 * scores.correctHeads / scores.total : 0;
+	}
+	
+	private static double las (AttachmentScores scores)
+	{
+		return scores.total > 0 ? 100.0 * scores.correctBoth / scores.total : 0;
+	}
+	
+	private static void badArgs (String param)
+	{
+		throw new IllegalArgumentException("Bad or incomplete parameter " + param + "!");
+	}
+}
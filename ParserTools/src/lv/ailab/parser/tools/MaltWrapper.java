@@ -2,6 +2,18 @@ package lv.ailab.parser.tools;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import org.maltparser.MaltParserService;
 import org.maltparser.core.exception.MaltChainedException;
 import org.maltparser.core.symbol.SymbolTable;
@@ -11,12 +23,28 @@ import org.maltparser.core.syntaxgraph.node.DependencyNode;
 
 public class MaltWrapper
 {
+	/**
+	 * Size for input and output buffers.
+	 */
+	public static final int BUFFER_SIZE = 1 << 16;
+	protected static final String NO_VALUE = "#false#";
+	
 	private MaltParserService maltServ;
 	
 	public MaltWrapper (String modelName) 
 	throws MaltChainedException
 	{
-		 maltServ = new MaltParserService();
+		this(modelName, 0);
+	}
+	
+	/**
+	 * @param optionContainer	MaltParser option container, each parser
+	 *							instance in the same JVM needs its own.
+	 */
+	public MaltWrapper (String modelName, int optionContainer) 
+	throws MaltChainedException
+	{
+		 maltServ = new MaltParserService(optionContainer);
 		 maltServ.initializeParserModel(
 		 	"-c " + modelName + " -m parse -w . -lfi parser.log");
 	}
@@ -27,10 +55,133 @@ public class MaltWrapper
 		return maltServ.parse(conllRows);
 	}
 	
+	/**
+	 * Parse a sentence and make output rows in the same CoNLL format.
+	 */
+	public ArrayList<String> parseToRows(String[] conllRows)
+	throws MaltChainedException
+	{
+		return toRows(parse(conllRows));
+	}
+	
+	/**
+	 * Make CoNLL rows for the parsed sentence.
+	 */
+	public static ArrayList<String> toRows(DependencyStructure graph)
+	throws MaltChainedException
+	{
+		ArrayList<String> rows = new ArrayList<String>();
+		for (int i = 1; i <= graph.getHighestDependencyNodeIndex(); i++)
+		{
+			DependencyNode node = graph.getDependencyNode(i);
+			
+			StringBuilder outputRow = new StringBuilder();
+			
+			if (node != null)
+			{
+				for (SymbolTable table : node.getLabelTypes())
+				{
+					//System.out.print(node.getLabelSymbol(table) + "\t");
+					appendSymbol(outputRow, node.getLabelSymbol(table));
+					outputRow.append("\t");
+				}
+				
+				if (node.hasHead())
+				{
+					Edge  e = node.getHeadEdge();
+					//System.out.print(e.getSource().getIndex() + "\t");
+					outputRow.append(e.getSource().getIndex());
+					outputRow.append("\t");
+					if (e.isLabeled())
+					{
+						for (SymbolTable table : e.getLabelTypes())
+						{
+							//System.out.print(e.getLabelSymbol(table) + "\t");
+							appendSymbol(outputRow, e.getLabelSymbol(table));
+							outputRow.append("\t");
+						}
+					}
+					else
+					{
+						for (SymbolTable table : graph.getDefaultRootEdgeLabels().keySet()) {
+							//System.out.print(graph.getDefaultRootEdgeLabelSymbol(table) + "\t");
+							appendSymbol(outputRow, graph.getDefaultRootEdgeLabelSymbol(table));
+							outputRow.append("\t");
+						}
+					}
+				}
+				rows.add(outputRow.toString());
+			}
+		}
+		return rows;
+	}
+	
+	/**
+	 * Append a label symbol, MaltParser's "#false#" (no value) is printed as
+	 * "_". Symbols never contain tabs, so this gives the same result as
+	 * replacing in the whole row.
+	 */
+	protected static void appendSymbol(StringBuilder row, String symbol)
+	{
+		int start = 0;
+		int found = symbol.indexOf(NO_VALUE);
+		while (found >= 0)
+		{
+			row.append(symbol, start, found);
+			row.append('_');
+			start = found + NO_VALUE.length();
+			found = symbol.indexOf(NO_VALUE, start);
+		}
+		row.append(symbol, start, symbol.length());
+	}
+	
 	public static void main (String[] args)
-	throws IOException, MaltChainedException
+	throws IOException, MaltChainedException, InterruptedException
 	{
-		if (args.length < 1 || args[0] == null || args[0].equals(""))
+		int threads = 1;
+		int port = -1;
+		int cacheSize = 0;
+		int reportSeconds = 0;
+		String statsFile = null;
+		LinkedHashMap<String, String> otherModels = new LinkedHashMap<String, String>();
+		boolean badArgs = args.length < 1 || args[0] == null || args[0].equals("");
+		try
+		{
+			for (int i = 1; i < args.length && !badArgs; i++)
+			{
+				// Each option has a value.
+				if (i + 1 >= args.length) badArgs = true;
+				else if (args[i].equals("--threads"))
+					threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("--port"))
+					port = Integer.parseInt(args[++i]);
+				else if (args[i].equals("--cache"))
+					cacheSize = Integer.parseInt(args[++i]);
+				else if (args[i].equals("--report"))
+					reportSeconds = Integer.parseInt(args[++i]);
+				else if (args[i].equals("--stats-file"))
+					statsFile = args[++i];
+				else if (args[i].equals("--model"))
+				{
+					String model = args[++i];
+					int separator = model.indexOf('=');
+					if (separator < 1 || separator == model.length() - 1
+							|| model.substring(0, separator).equals(args[0])
+							|| otherModels.containsKey(model.substring(0, separator)))
+						badArgs = true;
+					else otherModels.put(model.substring(0, separator),
+							model.substring(separator + 1));
+				}
+				else badArgs = true;
+			}
+		} catch (NumberFormatException e)
+		{
+			badArgs = true;
+		}
+		if (threads < 1 || port > 65535 || cacheSize < 0 || reportSeconds < 0)
+			badArgs = true;
+		
+		if (badArgs)
 		{
 			System.out.println ("Piping wrapper for MaltParser v1.7x\n");
 			
@@ -42,91 +193,275 @@ public class MaltWrapper
 			
 			System.out.println ("Please, provide model name as the first parameter.\n");
 			
+			System.out.println ("Options:");
+			System.out.println ("\t--threads N - parse with N parser instances simultaneously,");
+			System.out.println ("\t\toutput is given in the input order (default: 1);");
+			System.out.println ("\t--port P - instead of stdin/stdout serve clients connecting to");
+			System.out.println ("\t\tlocal TCP port P, each connection uses the same protocol,");
+			System.out.println ("\t\tall connections share the parser instances;");
+			System.out.println ("\t--cache N - remember results for N last distinct sentences and");
+			System.out.println ("\t\tdo not parse them again (default: 0, no cache);");
+			System.out.println ("\t--report S - print throughput and latency summary to stderr");
+			System.out.println ("\t\tevery S seconds and at the end (default: 0, no summary);");
+			System.out.println ("\t--stats-file F - write the same statistics in a tab separated");
+			System.out.println ("\t\tfile F at each report and at the end (F.K for model K);");
+			System.out.println ("\t--model K=M - also load model M under the key K (may be repeated),");
+			System.out.println ("\t\tsentences starting with the line \"# model = K\" are parsed");
+			System.out.println ("\t\twith it; such line alone before an empty line selects the");
+			System.out.println ("\t\tmodel for the rest of the input; the first parameter is the");
+			System.out.println ("\t\tdefault model, its key is its name; sentences for an unknown");
+			System.out.println ("\t\tkey get the line \"# error = ...\" as the answer.\n");
+			
 			System.out.println ("Latvian Treebank project, LUMII, 2013, provided under GPL");
 			
 			return;
 		}
 		
-		MaltWrapper wr = new MaltWrapper (args[0]);
-		
-		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-		String prev = null;
-		ArrayList<String> sent = new ArrayList<String>();
-		
-		System.err.println ("MaltParser loaded.");
-		
-		while (true)
+		final ModelRouter models = new ModelRouter(args[0], new ParserPool (args[0], threads));
+		for (Map.Entry<String, String> model : otherModels.entrySet())
+			models.add(model.getKey(), new ParserPool (model.getValue(), threads));
+		if (cacheSize > 0)
+			for (ParserPool pool : models.getPools().values())
+				pool.enableCache(cacheSize);
+		final boolean printReport = reportSeconds > 0;
+		final String statsPath = statsFile;
+		if (cacheSize > 0 || printReport || statsPath != null)
 		{
-			String line = in.readLine();
-			if (line == null || line.trim().length() == 0)
+			// Server is usually stopped by killing it.
+			Runtime.getRuntime().addShutdownHook(new Thread()
 			{
-				if (line == null || prev != null && prev.trim().length() == 0) // "line == null" happens if stdin breaks.
+				public void run()
 				{
-					System.err.println ("MaltWrapper ended.");
-					return;
+					report(models, printReport, true, statsPath);
 				}
-								
-				if (sent == null || sent.size() < 1)
+			});
+		}
+		if (printReport)
+		{
+			ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+					new ThreadFactory()
+					{
+						public Thread newThread(Runnable r)
+						{
+							Thread t = new Thread(r, "MaltWrapper-reporter");
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			reporter.scheduleAtFixedRate(new Runnable()
+			{
+				public void run()
 				{
-					prev = line;
-					continue;
+					report(models, true, false, statsPath);
 				}
-				
-				String[] conll = sent.toArray(new String[sent.size()]);
-				DependencyStructure graph = wr.parse(conll);
-				
-				for (int i = 1; i <= graph.getHighestDependencyNodeIndex(); i++)
+			}, reportSeconds, reportSeconds, TimeUnit.SECONDS);
+		}
+		System.err.println ("MaltParser loaded.");
+		if (port >= 0)
+		{
+			new MaltServer(models, port).run();
+			return;
+		}
+		try
+		{
+			serve(models, new InputStreamReader(System.in, "UTF-8"),
+					new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), "UTF-8"));
+		}
+		finally
+		{
+			models.shutdown();
+		}
+		System.err.println ("MaltWrapper ended.");
+	}
+	
+	/**
+	 * Print statistics summary and cache statistics of all models to stderr
+	 * and/or write statistics in stats files.
+	 */
+	protected static void report(ModelRouter models, boolean print,
+			boolean printCache, String statsFile)
+	{
+		boolean several = models.getPools().size() > 1;
+		for (Map.Entry<String, ParserPool> model : models.getPools().entrySet())
+		{
+			ParserPool pool = model.getValue();
+			boolean cache = printCache && pool.getCache() != null;
+			if (several && (print || cache))
+				System.err.println ("Model " + model.getKey() + ":");
+			if (cache)
+				System.err.println (pool.getCache().getStats());
+			String file = statsFile;
+			if (statsFile != null && !model.getKey().equals(models.getDefaultKey()))
+				file = statsFile + "." + model.getKey();
+			report(pool.getStats(), print, file);
+		}
+	}
+	
+	/**
+	 * Print statistics summary to stderr and/or write it in the stats file.
+	 */
+	protected static void report(ParserStats stats, boolean print, String statsFile)
+	{
+		if (print) System.err.print(stats.getSummary());
+		if (statsFile != null) try
+		{
+			stats.writeFile(statsFile);
+		}
+		catch (IOException e)
+		{
+			System.err.println ("Could not write stats file: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Serve one request stream: CoNLL sentences separated by empty lines, two
+	 * empty lines or end of stream ends the service. Processing is done in
+	 * three stages: reading in the calling thread, parsing in the pool, and
+	 * writing in a separate thread, which gives results in the input order.
+	 * Output is buffered and flushed only when the writer has no more results
+	 * waiting: after each sentence for interactive use, but rarely when a big
+	 * file is piped through.
+	 * @param pool		parsers to use
+	 * @param input		where to read sentences from, not closed
+	 * @param output	where to write parsed sentences, flushed, but not closed
+	 */
+	public static void serve(ParserPool pool, Reader input, Writer output)
+	throws IOException, MaltChainedException, InterruptedException
+	{
+		serve(new ModelRouter("default", pool), input, output);
+	}
+	
+	/**
+	 * Serve one request stream with several models. Line "# model = KEY"
+	 * in a sentence selects the model for this sentence, such line alone
+	 * before an empty line selects the model for the rest of the stream.
+	 * Sentences for an unknown model key are not parsed, the answer for each
+	 * of them is a single line "# error = ...". With a single model header
+	 * lines are not treated specially.
+	 * @param models	parsers to use
+	 * @param input		where to read sentences from, not closed
+	 * @param output	where to write parsed sentences, flushed, but not closed
+	 */
+	public static void serve(ModelRouter models, Reader input, Writer output)
+	throws IOException, MaltChainedException, InterruptedException
+	{
+		BufferedReader in = new BufferedReader(input, BUFFER_SIZE);
+		ResultWriter writer = new ResultWriter(
+				new BufferedWriter(output, BUFFER_SIZE), 2 * models.size());
+		Thread writerThread = new Thread(writer, "MaltWrapper-writer");
+		writerThread.start();
+		try
+		{
+			String prev = null;
+			ArrayList<String> sent = new ArrayList<String>();
+			boolean routing = models.getPools().size() > 1;
+			String streamModel = models.getDefaultKey();
+			String sentModel = null;
+			while (writer.failure == null)
+			{
+				String line = in.readLine();
+				if (line == null || line.trim().length() == 0)
 				{
-					DependencyNode node = graph.getDependencyNode(i);
-					
-					StringBuilder outputRow = new StringBuilder();
-					
-					if (node != null)
+					if (line == null || prev != null && prev.trim().length() == 0) // "line == null" happens if stdin breaks.
+						break;
+					if (sent.size() > 0)
 					{
-						for (SymbolTable table : node.getLabelTypes())
+						String[] conll = sent.toArray(new String[sent.size()]);
+						String modelKey = sentModel == null ? streamModel : sentModel;
+						ParserPool pool = models.get(modelKey);
+						if (pool != null) writer.pending.put(pool.submit(conll));
+						else
 						{
-							//System.out.print(node.getLabelSymbol(table) + "\t");
-							outputRow.append(node.getLabelSymbol(table));
-							outputRow.append("\t");
+							System.err.println ("Unknown model " + modelKey + "!");
+							writer.pending.put(CompletableFuture.completedFuture(
+									new ArrayList<String>(Collections.singletonList(
+											"# error = Unknown model " + modelKey + "!"))));
 						}
-						
-						if (node.hasHead())
+						sent = new ArrayList<String>();
+					}
+					else if (sentModel != null) streamModel = sentModel;
+					sentModel = null;
+				}
+				else
+				{
+					String modelKey = routing ? ModelRouter.parseHeader(line) : null;
+					if (modelKey == null) sent.add(line);
+					else sentModel = modelKey;
+				}
+				prev = line;
+			}
+		}
+		finally
+		{
+			writer.pending.put(ResultWriter.END);
+			writerThread.join();
+		}
+		if (writer.failure instanceof IOException)
+			throw (IOException) writer.failure;
+		if (writer.failure instanceof MaltChainedException)
+			throw (MaltChainedException) writer.failure;
+		if (writer.failure != null)
+			throw new IllegalStateException(writer.failure);
+	}
+	
+	/**
+	 * Writer stage: prints parsing results in the input order, as soon as
+	 * they are ready. After a failure, remaining results are skipped.
+	 */
+	protected static class ResultWriter implements Runnable
+	{
+		/**
+		 * Marker for the end of input.
+		 */
+		protected static final Future<ArrayList<String>> END =
+				CompletableFuture.completedFuture(null);
+		
+		protected final BlockingQueue<Future<ArrayList<String>>> pending;
+		protected final BufferedWriter out;
+		protected volatile Exception failure = null;
+		
+		protected ResultWriter (BufferedWriter out, int queueSize)
+		{
+			this.out = out;
+			pending = new ArrayBlockingQueue<Future<ArrayList<String>>>(queueSize);
+		}
+		
+		public void run()
+		{
+			try
+			{
+				Future<ArrayList<String>> next = pending.take();
+				while (next != END)
+				{
+					if (failure == null) try
+					{
+						for (String row : next.get())
 						{
-							Edge  e = node.getHeadEdge();
-							//System.out.print(e.getSource().getIndex() + "\t");
-							outputRow.append(e.getSource().getIndex());
-							outputRow.append("\t");
-							if (e.isLabeled())
-							{
-								for (SymbolTable table : e.getLabelTypes())
-								{
-									//System.out.print(e.getLabelSymbol(table) + "\t");
-									outputRow.append(e.getLabelSymbol(table));
-									outputRow.append("\t");
-								}
-							}
-							else
-							{
-								for (SymbolTable table : graph.getDefaultRootEdgeLabels().keySet()) {
-									//System.out.print(graph.getDefaultRootEdgeLabelSymbol(table) + "\t");
-									outputRow.append(graph.getDefaultRootEdgeLabelSymbol(table));
-									outputRow.append("\t");
-								}
-							}
+							out.write(row);
+							out.newLine();
 						}
-						String output = outputRow.toString().replaceAll("#false#", "_");
-						System.out.println(output);
+						out.newLine();
+						// Nothing more to write, maybe someone is waiting.
+						if (pending.isEmpty()) out.flush();
+					} catch (ExecutionException e)
+					{
+						if (e.getCause() instanceof Exception)
+							failure = (Exception) e.getCause();
+						else failure = e;
+					} catch (IOException e)
+					{
+						failure = e;
 					}
+					next = pending.take();
 				}
-				System.out.println();
-				sent = new ArrayList<String>();
-				
-			}
-			else
+				if (failure == null) out.flush();
+			} catch (IOException e)
+			{
+				failure = e;
+			} catch (InterruptedException e)
 			{
-				sent.add(line);
+				Thread.currentThread().interrupt();
 			}
-			prev = line;
 		}
 	}
 }
\ No newline at end of file
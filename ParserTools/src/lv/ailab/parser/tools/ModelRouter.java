@@ -0,0 +1,86 @@
+package lv.ailab.parser.tools;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parser pools for several models (e.g., per domain or tag set) loaded once
+ * in the same process. Sentences are routed to a model by its key, the first
+ * added model is the default one. In the input stream a model is selected
+ * with a header line "# model = KEY".
+ */
+public class ModelRouter
+{
+	protected static final String HEADER = "# model";
+
+	private LinkedHashMap<String, ParserPool> pools = new LinkedHashMap<String, ParserPool>();
+	private String defaultKey = null;
+
+	public ModelRouter ()
+	{
+	}
+
+	/**
+	 * Router with a single model.
+	 */
+	public ModelRouter (String key, ParserPool pool)
+	{
+		add(key, pool);
+	}
+
+	public void add(String key, ParserPool pool)
+	{
+		if (pools.containsKey(key))
+			throw new IllegalArgumentException("Model key " + key + " is used twice!");
+		pools.put(key, pool);
+		if (defaultKey == null) defaultKey = key;
+	}
+
+	/**
+	 * @return	pool for the given model or null, if there is no such model
+	 */
+	public ParserPool get(String key)
+	{
+		return pools.get(key);
+	}
+
+	public String getDefaultKey()
+	{
+		return defaultKey;
+	}
+
+	public Map<String, ParserPool> getPools()
+	{
+		return Collections.unmodifiableMap(pools);
+	}
+
+	/**
+	 * @return	parser instance count in all pools
+	 */
+	public int size()
+	{
+		int res = 0;
+		for (ParserPool pool : pools.values())
+			res = res + pool.size();
+		return res;
+	}
+
+	public void shutdown()
+	{
+		for (ParserPool pool : pools.values())
+			pool.shutdown();
+	}
+
+	/**
+	 * Check if the line is a model header "# model = KEY".
+	 * @return	model key or null, if the line is not a header
+	 */
+	public static String parseHeader(String line)
+	{
+		if (!line.startsWith(HEADER)) return null;
+		String rest = line.substring(HEADER.length()).trim();
+		if (!rest.startsWith("=")) return null;
+		return rest.substring(1).trim();
+	}
+}
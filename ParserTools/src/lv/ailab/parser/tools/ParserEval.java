@@ -0,0 +1,255 @@
+package lv.ailab.parser.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tool for evaluating parser output against a golden file, Java counterpart
+ * of ParserEval.pm. Both files are read in lockstep, sentence by sentence,
+ * only HEAD and DEPREL columns are compared. Gold tokens with empty ("_")
+ * HEAD or DEPREL are not scored. In parallel mode files are cut in chunks of
+ * matching sentences, each chunk is scored separately and the scores are
+ * merged.
+ */
+public final class ParserEval
+{
+	/**
+	 * Universal Dependencies relations whose dependents are content words,
+	 * as in the CoNLL 2018 shared task evaluation, default for CLAS.
+	 */
+	public static final String[] UD_CONTENT_DEPRELS = {
+		"nsubj", "obj", "iobj", "csubj", "ccomp", "xcomp", "obl", "vocative",
+		"expl", "dislocated", "advcl", "advmod", "discourse", "nmod", "appos",
+		"nummod", "acl", "amod", "conj", "fixed", "flat", "compound", "list",
+		"parataxis", "orphan", "goeswith", "reparandum", "root", "dep"};
+	/**
+	 * Approximate size of gold file chunks in parallel mode.
+	 */
+	protected static final long CHUNK_SIZE = 1 << 22;
+
+	public static void main (String[] args)
+	throws IOException
+	{
+		if (args == null || args.length < 2 || !(new File (args[0])).exists()
+				|| !(new File (args[1])).exists())
+		{
+			System.out.println ("Tool for evaluating syntax parser output file in conll format regarding");
+			System.out.println ("to golden file. Only DEPREL and HEAD columns are compared.");
+			System.out.println ("NB: If golden file has empty ('_') DEPREL or HEAD fields for a token, this");
+			System.out.println ("    token is excluded from scoring.\n");
+			
+			System.out.println ("Usage:");
+			System.out.println ("   <golden.conll> <system.conll> [output file] --conll2009 --threads N");
+			System.out.println ("   --content A,B\n");
+			
+			System.out.println ("   output file  where to write scores (default is <system.conll>.score),");
+			System.out.println ("   --conll2009  switch to \"large\" format (default is CoNLL-X or CoNLL-U),");
+			System.out.println ("   --threads N  score file chunks in N parallel threads (default 1),");
+			System.out.println ("   --content    relations counted for CLAS (default is UD content relations).\n");
+			
+			System.out.println ("Latvian Treebank project, LUMII, 2013-now, provided under GPL");
+			return;
+		}
+		
+		ArrayList <String> params = new ArrayList<>(Arrays.asList(args));
+		String goldName = params.remove(0);
+		String systemName = params.remove(0);
+		boolean conll2009 = params.remove("--conll2009");
+		int threads = 1;
+		HashSet<String> content = new HashSet<>(Arrays.asList(UD_CONTENT_DEPRELS));
+		int index = params.indexOf("--threads");
+		if (index >= 0)
+		{
+			params.remove(index);
+			if (index < params.size()) threads = Integer.parseInt(params.remove(index));
+			if (threads < 1)
+				throw new IllegalArgumentException("Illegal thread count!");
+		}
+		index = params.indexOf("--content");
+		if (index >= 0)
+		{
+			params.remove(index);
+			if (index < params.size())
+				content = new HashSet<>(Arrays.asList(params.remove(index).split(",")));
+		}
+		String outputName = params.isEmpty() ? systemName + ".score" : params.get(0);
+		
+		FileChannel gold = FileChannel.open(Paths.get(goldName), StandardOpenOption.READ);
+		FileChannel system = FileChannel.open(Paths.get(systemName), StandardOpenOption.READ);
+		AttachmentScores scores;
+		try
+		{
+			if (threads == 1)
+				scores = evaluate(gold, 0, gold.size(), system, 0, system.size(),
+						conll2009, content);
+			else scores = evaluateParallel(gold, system, conll2009, content, threads);
+		}
+		finally
+		{
+			gold.close();
+			system.close();
+		}
+		
+		Writer out = new OutputStreamWriter(new FileOutputStream(outputName), "UTF-8");
+		try
+		{
+			out.write("Golden: " + goldName + "\n");
+			out.write("System: " + systemName + "\n\n");
+			out.write(scores.getReport());
+		}
+		finally
+		{
+			out.close();
+		}
+		System.out.println("Evaluation finished, " + scores.total
+				+ " tokens scored, results written to " + outputName + ".");
+	}
+	
+	/**
+	 * Cut files in chunks of matching sentences and score them in parallel.
+	 * Only sentence boundaries are scanned in the calling thread.
+	 */
+	public static AttachmentScores evaluateParallel (
+			final FileChannel gold, final FileChannel system,
+			final boolean conll2009, final HashSet<String> content, int threads)
+	throws IOException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try
+		{
+			ArrayList<Future<AttachmentScores>> parts = new ArrayList<>();
+			ConllReader goldScanner = openReader(gold, 0, gold.size(), conll2009);
+			ConllReader systemScanner = openReader(system, 0, system.size(), conll2009);
+			long goldFrom = 0, systemFrom = 0;
+			while (true)
+			{
+				boolean more = goldScanner.skipSentence();
+				if (more != systemScanner.skipSentence())
+					throw new IOException("Gold and system files have different sentence count!");
+				final long goldStart = goldFrom, goldEnd = goldScanner.getPosition();
+				final long systemStart = systemFrom, systemEnd = systemScanner.getPosition();
+				if (more ? goldEnd - goldStart >= CHUNK_SIZE : goldEnd > goldStart)
+				{
+					parts.add(pool.submit(() -> evaluate(gold, goldStart, goldEnd,
+							system, systemStart, systemEnd, conll2009, content)));
+					goldFrom = goldEnd;
+					systemFrom = systemEnd;
+				}
+				if (!more) break;
+			}
+			goldScanner.close();
+			systemScanner.close();
+			
+			AttachmentScores res = null;
+			for (Future<AttachmentScores> part : parts)
+			{
+				if (res == null) res = part.get();
+				else res.merge(part.get());
+			}
+			if (res == null) res = evaluate(gold, 0, 0, system, 0, 0, conll2009, content);
+			return res;
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Evaluation interrupted!", e);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Score sentences in the given parts of gold and system files. Parts must
+	 * start at sentence boundaries and contain the same sentences.
+	 */
+	public static AttachmentScores evaluate (
+			FileChannel gold, long goldFrom, long goldTo,
+			FileChannel system, long systemFrom, long systemTo,
+			boolean conll2009, HashSet<String> content)
+	throws IOException
+	{
+		ConllReader goldReader = openReader(gold, goldFrom, goldTo, conll2009);
+		ConllReader systemReader = openReader(system, systemFrom, systemTo, conll2009);
+		AttachmentScores scores = new AttachmentScores(goldReader.deprels, content);
+		int empty = goldReader.deprels.lookup("_");
+		// System DEPREL ID + 1 -> gold DEPREL ID + 1, 0 if not known yet.
+		int[] systemLabels = new int[64];
+		
+		ConllReader.Sentence goldSent = new ConllReader.Sentence();
+		ConllReader.Sentence systemSent = new ConllReader.Sentence();
+		try
+		{
+			while (true)
+			{
+				boolean more = goldReader.readSentence(goldSent);
+				if (more != systemReader.readSentence(systemSent))
+					throw new IOException("Gold and system files have different sentence count!");
+				if (!more) break;
+				if (goldSent.length != systemSent.length)
+					throw new IOException("Gold sentence at byte " + goldSent.start
+							+ " has " + goldSent.length + " tokens, system sentence at byte "
+							+ systemSent.start + " has " + systemSent.length + "!");
+				
+				for (int i = 0; i < goldSent.length; i++)
+				{
+					int goldHead = goldSent.heads[i];
+					int goldDeprel = goldSent.deprels[i];
+					if (goldHead < 0 || goldDeprel < 0 || goldDeprel == empty)
+					{
+						scores.ignored++;
+						continue;
+					}
+					int systemDeprel = systemSent.deprels[i];
+					if (systemDeprel >= 0)
+					{
+						if (systemDeprel >= systemLabels.length)
+							systemLabels = Arrays.copyOf(systemLabels,
+									Math.max(2 * systemLabels.length, systemDeprel + 1));
+						if (systemLabels[systemDeprel] == 0)
+							systemLabels[systemDeprel] = 1 + goldReader.deprels.lookup(
+									systemReader.deprels.get(systemDeprel));
+						systemDeprel = systemLabels[systemDeprel] - 1;
+					}
+					scores.add(goldSent.length, i + 1, goldHead, goldDeprel,
+							systemSent.heads[i], systemDeprel);
+				}
+			}
+		}
+		finally
+		{
+			goldReader.close();
+			systemReader.close();
+		}
+		return scores;
+	}
+	
+	private static ConllReader openReader (FileChannel channel, long from,
+			long to, boolean conll2009)
+	throws IOException
+	{
+		if (conll2009) return new ConllReader(channel, from, to,
+				ConllReader.CONLL2009_HEAD, ConllReader.CONLL2009_DEPREL);
+		return new ConllReader(channel, from, to,
+				ConllReader.CONLLX_HEAD, ConllReader.CONLLX_DEPREL);
+	}
+}
@@ -0,0 +1,146 @@
+package lv.ailab.parser.tools;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.maltparser.core.exception.MaltChainedException;
+
+/**
+ * Several MaltParser instances loaded from the same model. MaltParser
+ * instance can parse only one sentence at a time, so each sentence borrows an
+ * idle instance and returns it afterwards.
+ * MaltParser keeps options in the process-wide OptionManager, but each
+ * instance reads them from its own option container, so instances in the
+ * same JVM do not disturb each other while parsing; output does not depend on
+ * the pool size. Training is different, see MaltTrainer.
+ */
+public class ParserPool
+{
+	/**
+	 * Each parser instance in the JVM needs its own MaltParser option
+	 * container, also when several pools are used.
+	 */
+	private static final AtomicInteger nextOptionContainer = new AtomicInteger(0);
+
+	private BlockingQueue<MaltWrapper> idle;
+	private ExecutorService executor;
+	private int size;
+	/**
+	 * Results of already parsed sentences, or null, if not used.
+	 */
+	private ResultCache cache = null;
+	private ParserStats stats = new ParserStats();
+
+	/**
+	 * Load the given number of parser instances.
+	 * @param modelName	MaltParser model (.mco) name
+	 * @param size		how many instances to load
+	 */
+	public ParserPool (String modelName, int size)
+	throws MaltChainedException
+	{
+		if (size < 1)
+			throw new IllegalArgumentException("Illegal parser count " + size + "!");
+		this.size = size;
+		idle = new ArrayBlockingQueue<MaltWrapper>(size);
+		long loadStart = System.nanoTime();
+		for (int i = 0; i < size; i++)
+			idle.add(new MaltWrapper(modelName, nextOptionContainer.getAndIncrement()));
+		stats.setModelLoadTime(System.nanoTime() - loadStart);
+		executor = Executors.newFixedThreadPool(size);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Start reusing results for repeated sentences.
+	 * @param maxSize	how many sentences to remember
+	 */
+	public void enableCache(int maxSize)
+	{
+		cache = new ResultCache(maxSize);
+	}
+
+	public ParserStats getStats()
+	{
+		return stats;
+	}
+
+	/**
+	 * @return	result cache or null, if it is not used
+	 */
+	public ResultCache getCache()
+	{
+		return cache;
+	}
+
+	/**
+	 * Parse a sentence in the calling thread, waiting for an idle parser
+	 * instance, if needed. If cache is used, repeated sentences are not
+	 * parsed again.
+	 * @return	parsed sentence as CoNLL rows; must not be changed, as it may
+	 * 			be shared with the cache
+	 */
+	public ArrayList<String> parse(String[] conllRows)
+	throws MaltChainedException, InterruptedException
+	{
+		long start = System.nanoTime();
+		String key = null;
+		if (cache != null)
+		{
+			conllRows = ResultCache.normalize(conllRows);
+			key = ResultCache.key(conllRows);
+			ArrayList<String> cached = cache.get(key);
+			if (cached != null)
+			{
+				stats.record(conllRows.length, System.nanoTime() - start);
+				return cached;
+			}
+		}
+		ArrayList<String> res;
+		MaltWrapper parser = idle.take();
+		try
+		{
+			res = parser.parseToRows(conllRows);
+		}
+		finally
+		{
+			idle.put(parser);
+		}
+		if (cache != null) cache.put(key, res);
+		stats.record(conllRows.length, System.nanoTime() - start);
+		return res;
+	}
+
+	/**
+	 * Parse a sentence in the pool's own threads.
+	 * @return	parsed sentence as CoNLL rows
+	 */
+	public Future<ArrayList<String>> submit(final String[] conllRows)
+	{
+		return executor.submit(new Callable<ArrayList<String>>()
+		{
+			public ArrayList<String> call()
+			throws MaltChainedException, InterruptedException
+			{
+				return parse(conllRows);
+			}
+		});
+	}
+
+	/**
+	 * Stop pool's threads after already submitted sentences are parsed.
+	 */
+	public void shutdown()
+	{
+		executor.shutdown();
+	}
+}
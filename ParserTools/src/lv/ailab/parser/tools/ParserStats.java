@@ -0,0 +1,140 @@
+package lv.ailab.parser.tools;
+
+import java.io.*;
+
+/**
+ * Throughput and latency statistics for a parser pool: sentences and tokens
+ * per second, model load time and a histogram of sentence latencies for
+ * each sentence length bucket. Latency is measured from the moment the
+ * sentence is given to the pool, so it includes waiting for an idle parser.
+ */
+public class ParserStats
+{
+	/**
+	 * Upper bounds (inclusive) of sentence length buckets, in tokens.
+	 */
+	protected static final int[] LENGTH_BOUNDS = {5, 10, 20, 40, Integer.MAX_VALUE};
+	/**
+	 * Upper bounds (exclusive) of latency buckets, in milliseconds.
+	 */
+	protected static final long[] LATENCY_BOUNDS = {1, 5, 10, 50, 100, 500, Long.MAX_VALUE};
+
+	/**
+	 * Throughput is counted from the moment the model is loaded.
+	 */
+	private long startTime = System.nanoTime();
+	private long modelLoadNanos = 0;
+	private long sentences = 0;
+	private long tokens = 0;
+	/**
+	 * Sentence count for each length bucket and latency bucket.
+	 */
+	private long[][] histogram = new long[LENGTH_BOUNDS.length][LATENCY_BOUNDS.length];
+	private long[] latencySum = new long[LENGTH_BOUNDS.length];
+	private long[] latencyMax = new long[LENGTH_BOUNDS.length];
+
+	/**
+	 * Set model load time, counting of throughput starts anew.
+	 */
+	public synchronized void setModelLoadTime(long nanos)
+	{
+		modelLoadNanos = nanos;
+		startTime = System.nanoTime();
+	}
+
+	/**
+	 * Count one processed sentence.
+	 * @param tokenCount	sentence length
+	 * @param nanos			time spent on this sentence
+	 */
+	public synchronized void record(int tokenCount, long nanos)
+	{
+		sentences++;
+		tokens = tokens + tokenCount;
+		int lengthBucket = 0;
+		while (tokenCount > LENGTH_BOUNDS[lengthBucket]) lengthBucket++;
+		long millis = nanos / 1000000;
+		int latencyBucket = 0;
+		while (millis >= LATENCY_BOUNDS[latencyBucket]) latencyBucket++;
+		histogram[lengthBucket][latencyBucket]++;
+		latencySum[lengthBucket] = latencySum[lengthBucket] + nanos;
+		if (nanos > latencyMax[lengthBucket]) latencyMax[lengthBucket] = nanos;
+	}
+
+	/**
+	 * Human readable summary.
+	 */
+	public synchronized String getSummary()
+	{
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		StringBuilder res = new StringBuilder();
+		res.append(String.format(
+				"Parser stats: model loaded in %.1f s; %d sentences, %d tokens in %.1f s; %.1f sentences/s, %.1f tokens/s.\n",
+				modelLoadNanos / 1e9, sentences, tokens, seconds,
+				sentences / seconds, tokens / seconds));
+		res.append("\tLength\tCount\tMean ms\tMax ms\tLatency histogram\n");
+		for (int i = 0; i < LENGTH_BOUNDS.length; i++)
+		{
+			long count = 0;
+			for (long c : histogram[i]) count = count + c;
+			if (count == 0) continue;
+			res.append(String.format("\t%s\t%d\t%.1f\t%.1f\t",
+					lengthLabel(i), count, latencySum[i] / 1e6 / count,
+					latencyMax[i] / 1e6));
+			for (int j = 0; j < LATENCY_BOUNDS.length; j++)
+			{
+				if (histogram[i][j] == 0) continue;
+				res.append(latencyLabel(j));
+				res.append(": ");
+				res.append(histogram[i][j]);
+				res.append("  ");
+			}
+			res.append("\n");
+		}
+		return res.toString();
+	}
+
+	/**
+	 * Write statistics for other programs: one "key<TAB>value" pair per line,
+	 * histogram lines have the form
+	 * "latency<TAB>length bucket<TAB>latency bucket<TAB>count".
+	 */
+	public synchronized void writeFile(String path)
+	throws IOException
+	{
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(path), "UTF-8"));
+		try
+		{
+			out.printf("model_load_ms\t%d\n", modelLoadNanos / 1000000);
+			out.printf("uptime_ms\t%d\n", (long)(seconds * 1000));
+			out.printf("sentences\t%d\n", sentences);
+			out.printf("tokens\t%d\n", tokens);
+			out.printf("sentences_per_s\t%.3f\n", sentences / seconds);
+			out.printf("tokens_per_s\t%.3f\n", tokens / seconds);
+			for (int i = 0; i < LENGTH_BOUNDS.length; i++)
+				for (int j = 0; j < LATENCY_BOUNDS.length; j++)
+					out.printf("latency\t%s\t%s\t%d\n",
+							lengthLabel(i), latencyLabel(j), histogram[i][j]);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	protected static String lengthLabel(int bucket)
+	{
+		int from = bucket == 0 ? 1 : LENGTH_BOUNDS[bucket - 1] + 1;
+		if (LENGTH_BOUNDS[bucket] == Integer.MAX_VALUE) return from + "+";
+		return from + "-" + LENGTH_BOUNDS[bucket];
+	}
+
+	protected static String latencyLabel(int bucket)
+	{
+		if (LATENCY_BOUNDS[bucket] == Long.MAX_VALUE)
+			return ">=" + LATENCY_BOUNDS[bucket - 1] + "ms";
+		return "<" + LATENCY_BOUNDS[bucket] + "ms";
+	}
+}
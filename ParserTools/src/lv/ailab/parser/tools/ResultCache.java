@@ -0,0 +1,82 @@
+package lv.ailab.parser.tools;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache for parsing results, so that repeated sentences (headlines,
+ * boilerplate, disclaimers) are parsed only once. Key is the normalized input
+ * sentence, least recently used sentences are dropped first.
+ */
+public class ResultCache
+{
+	private LinkedHashMap<String, ArrayList<String>> results;
+	private int maxSize;
+	private long hits = 0;
+	private long misses = 0;
+
+	public ResultCache (int maxSize)
+	{
+		if (maxSize < 1)
+			throw new IllegalArgumentException("Illegal cache size " + maxSize + "!");
+		this.maxSize = maxSize;
+		results = new LinkedHashMap<String, ArrayList<String>>(16, 0.75f, true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<String, ArrayList<String>> eldest)
+			{
+				return size() > ResultCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Normalize input rows: trailing whitespace (e.g., "\r" from Windows
+	 * clients) is removed. Normalized rows should be given to the parser, so
+	 * that the result does not depend on the cache.
+	 */
+	public static String[] normalize(String[] conllRows)
+	{
+		String[] res = new String[conllRows.length];
+		for (int i = 0; i < conllRows.length; i++)
+		{
+			int end = conllRows[i].length();
+			while (end > 0 && Character.isWhitespace(conllRows[i].charAt(end - 1)))
+				end--;
+			res[i] = conllRows[i].substring(0, end);
+		}
+		return res;
+	}
+
+	/**
+	 * Make cache key for normalized rows.
+	 */
+	public static String key(String[] normalizedRows)
+	{
+		return String.join("\n", normalizedRows);
+	}
+
+	/**
+	 * @return	cached output rows or null; returned list must not be changed
+	 */
+	public synchronized ArrayList<String> get(String key)
+	{
+		ArrayList<String> res = results.get(key);
+		if (res == null) misses++;
+		else hits++;
+		return res;
+	}
+
+	public synchronized void put(String key, ArrayList<String> outputRows)
+	{
+		results.put(key, outputRows);
+	}
+
+	public synchronized String getStats()
+	{
+		long all = hits + misses;
+		return String.format(
+				"Sentence cache: %d hits, %d misses, hit rate %.1f%%, %d sentences cached.",
+				hits, misses, all > 0 ? 100.0 * hits / all : 0.0, results.size());
+	}
+}
@@ -0,0 +1,317 @@
+package lv.ailab.parser.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Treebank statistics collected in one pass over the data: DEPREL, POS and
+ * feature frequencies, arc length and direction, tree depth,
+ * non-projectivity and CoNLL-U enhanced dependencies. Each thread collects
+ * its own statistics, where labels are counted by the IDs of its reader's
+ * label tables, and results are combined with merge().
+ * Non-projectivity degree of an arc is the number of tokens between the head
+ * and the dependent not dominated by the head, degree of a sentence is the
+ * largest degree of its arcs (0 for projective sentences).
+ */
+public class TreebankStats
+{
+	private final LabelTable deprelLabels;
+	private final LabelTable posLabels;
+	private final LabelTable featureLabels;
+	private final LabelTable enhancedLabels;
+
+	public long sentences = 0;
+	public long tokens = 0;
+	/**
+	 * Sentences with invalid HEAD values or cycles, depth and
+	 * non-projectivity is not counted for them.
+	 */
+	public long brokenTrees = 0;
+	public long rootArcs = 0;
+	public long nonProjectiveArcs = 0;
+	public long sentencesWithEnhanced = 0;
+	public long emptyNodes = 0;
+
+	/**
+	 * Sentence count for each sentence length.
+	 */
+	public final IntHistogram lengths = new IntHistogram();
+	/**
+	 * Label counts for each label ID.
+	 */
+	public final IntHistogram deprels = new IntHistogram();
+	public final IntHistogram postags = new IntHistogram();
+	public final IntHistogram features = new IntHistogram();
+	public final IntHistogram enhancedDeprels = new IntHistogram();
+	/**
+	 * Arc count for each arc length, for arcs with the head before and after
+	 * the dependent.
+	 */
+	public final IntHistogram headFirstArcs = new IntHistogram();
+	public final IntHistogram headLastArcs = new IntHistogram();
+	/**
+	 * Sentence count for each tree depth (tokens attached to the root have
+	 * depth 1).
+	 */
+	public final IntHistogram depths = new IntHistogram();
+	/**
+	 * Sentence count for each non-projectivity degree.
+	 */
+	public final IntHistogram nonProjectivity = new IntHistogram();
+
+	/**
+	 * Work arrays for tree walking, indexed by token number, root is 0.
+	 */
+	private int[] childStart = new int[66];
+	private int[] children = new int[65];
+	private int[] nextChild = new int[65];
+	private int[] stack = new int[65];
+	private int[] enter = new int[65];
+	private int[] exit = new int[65];
+	private int[] depth = new int[65];
+
+	/**
+	 * @param reader	reader whose sentences will be counted
+	 */
+	public TreebankStats (ConllReader reader)
+	{
+		deprelLabels = reader.deprels;
+		posLabels = reader.postags;
+		featureLabels = reader.features;
+		enhancedLabels = reader.enhancedDeprels;
+	}
+
+	/**
+	 * Count one sentence.
+	 */
+	public void add(ConllReader.Sentence sent)
+	{
+		int length = sent.length;
+		sentences++;
+		tokens = tokens + length;
+		lengths.add(length);
+		emptyNodes = emptyNodes + sent.emptyNodes;
+		for (int i = 0; i < length; i++)
+		{
+			if (sent.deprels[i] >= 0) deprels.add(sent.deprels[i]);
+			if (sent.postags[i] >= 0) postags.add(sent.postags[i]);
+			int head = sent.heads[i];
+			int dep = i + 1;
+			if (head == 0) rootArcs++;
+			else if (head > 0 && head < dep) headFirstArcs.add(dep - head);
+			else if (head > dep && head <= length) headLastArcs.add(head - dep);
+		}
+		for (int i = 0; i < sent.featureCount; i++)
+			features.add(sent.features[i]);
+		for (int i = 0; i < sent.enhancedCount; i++)
+			enhancedDeprels.add(sent.enhancedDeprels[i]);
+		if (sent.enhancedCount > 0) sentencesWithEnhanced++;
+
+		int maxDepth = walkTree(sent);
+		if (maxDepth < 0)
+		{
+			brokenTrees++;
+			return;
+		}
+		depths.add(maxDepth);
+		nonProjectivity.add(nonProjectivityDegree(sent));
+	}
+
+	/**
+	 * Walk the tree from the root, fill depth and preorder enter and exit
+	 * times for each token.
+	 * @return	tree depth or -1, if the sentence is not a tree
+	 */
+	private int walkTree(ConllReader.Sentence sent)
+	{
+		int length = sent.length;
+		if (enter.length <= length)
+		{
+			int size = 2 * (length + 1);
+			childStart = new int[size + 1];
+			children = new int[size];
+			nextChild = new int[size];
+			stack = new int[size];
+			enter = new int[size];
+			exit = new int[size];
+			depth = new int[size];
+		}
+		// Children lists, ordered by head.
+		Arrays.fill(childStart, 0, length + 2, 0);
+		for (int dep = 1; dep <= length; dep++)
+		{
+			int head = sent.heads[dep - 1];
+			if (head < 0 || head > length || head == dep) return -1;
+			childStart[head + 1]++;
+		}
+		for (int node = 1; node <= length + 1; node++)
+			childStart[node] = childStart[node] + childStart[node - 1];
+		for (int node = 0; node <= length; node++)
+			nextChild[node] = childStart[node];
+		for (int dep = 1; dep <= length; dep++)
+			children[nextChild[sent.heads[dep - 1]]++] = dep;
+
+		// Depth first walk, each token is reached at most once as it has one
+		// head; tokens in cycles are not reached at all.
+		int time = 0;
+		int maxDepth = 0;
+		int top = 0;
+		stack[top++] = 0;
+		enter[0] = time++;
+		depth[0] = 0;
+		nextChild[0] = childStart[0];
+		while (top > 0)
+		{
+			int node = stack[top - 1];
+			if (nextChild[node] < childStart[node + 1])
+			{
+				int child = children[nextChild[node]++];
+				enter[child] = time++;
+				depth[child] = depth[node] + 1;
+				if (depth[child] > maxDepth) maxDepth = depth[child];
+				nextChild[child] = childStart[child];
+				stack[top++] = child;
+			}
+			else
+			{
+				exit[node] = time;
+				top--;
+			}
+		}
+		if (time != length + 1) return -1;
+		return maxDepth;
+	}
+
+	/**
+	 * Count non-projective arcs, walkTree() must be called before.
+	 * @return	non-projectivity degree of the sentence
+	 */
+	private int nonProjectivityDegree(ConllReader.Sentence sent)
+	{
+		int res = 0;
+		for (int dep = 1; dep <= sent.length; dep++)
+		{
+			int head = sent.heads[dep - 1];
+			if (head == 0) continue;
+			int degree = 0;
+			for (int between = Math.min(head, dep) + 1; between < Math.max(head, dep); between++)
+				if (enter[between] < enter[head] || enter[between] >= exit[head])
+					degree++;
+			if (degree > 0) nonProjectiveArcs++;
+			if (degree > res) res = degree;
+		}
+		return res;
+	}
+
+	/**
+	 * Add statistics collected by another thread.
+	 */
+	public void merge(TreebankStats other)
+	{
+		sentences = sentences + other.sentences;
+		tokens = tokens + other.tokens;
+		brokenTrees = brokenTrees + other.brokenTrees;
+		rootArcs = rootArcs + other.rootArcs;
+		nonProjectiveArcs = nonProjectiveArcs + other.nonProjectiveArcs;
+		sentencesWithEnhanced = sentencesWithEnhanced + other.sentencesWithEnhanced;
+		emptyNodes = emptyNodes + other.emptyNodes;
+		lengths.merge(other.lengths);
+		headFirstArcs.merge(other.headFirstArcs);
+		headLastArcs.merge(other.headLastArcs);
+		depths.merge(other.depths);
+		nonProjectivity.merge(other.nonProjectivity);
+		mergeLabels(deprels, deprelLabels, other.deprels, other.deprelLabels);
+		mergeLabels(postags, posLabels, other.postags, other.posLabels);
+		mergeLabels(features, featureLabels, other.features, other.featureLabels);
+		mergeLabels(enhancedDeprels, enhancedLabels,
+				other.enhancedDeprels, other.enhancedLabels);
+	}
+
+	/**
+	 * Add label counts from another label table.
+	 */
+	private static void mergeLabels(IntHistogram counts, LabelTable labels,
+			IntHistogram otherCounts, LabelTable otherLabels)
+	{
+		for (int id = 0; id < otherCounts.size(); id++)
+			if (otherCounts.get(id) > 0)
+				counts.add(labels.lookup(otherLabels.get(id)), otherCounts.get(id));
+	}
+
+	/**
+	 * Human readable summary.
+	 */
+	public String getSummary()
+	{
+		StringBuilder res = new StringBuilder();
+		res.append(String.format("Sentences: %d, tokens: %d, mean length %.2f.\n",
+				sentences, tokens, lengths.mean()));
+		res.append("Broken trees (bad HEAD or cycles): " + brokenTrees + "\n");
+		long arcs = rootArcs + headFirstArcs.total() + headLastArcs.total();
+		res.append(String.format(
+				"Arcs: %d; from root %d, head first %d (%.1f%%, mean length %.2f), head last %d (%.1f%%, mean length %.2f).\n",
+				arcs, rootArcs,
+				headFirstArcs.total(), percent(headFirstArcs.total(), arcs), headFirstArcs.mean(),
+				headLastArcs.total(), percent(headLastArcs.total(), arcs), headLastArcs.mean()));
+		res.append("Arc length\tHead first\tHead last\n");
+		int maxLength = Math.max(headFirstArcs.size(), headLastArcs.size());
+		for (int length = 1; length < maxLength; length++)
+			res.append(String.format("\t%d\t%d\t%d\n",
+					length, headFirstArcs.get(length), headLastArcs.get(length)));
+		res.append(String.format("Tree depth (mean %.2f)\n", depths.mean()));
+		appendHistogram(res, depths);
+		res.append("Non-projective arcs: " + nonProjectiveArcs + "\n");
+		res.append("Non-projectivity degree\n");
+		appendHistogram(res, nonProjectivity);
+		res.append("DEPREL\n");
+		appendLabels(res, deprels, deprelLabels);
+		if (postags.total() > 0)
+		{
+			res.append("POS\n");
+			appendLabels(res, postags, posLabels);
+		}
+		if (features.total() > 0)
+		{
+			res.append("Features\n");
+			appendLabels(res, features, featureLabels);
+		}
+		if (enhancedDeprels.total() > 0)
+		{
+			res.append(String.format(
+					"Enhanced dependencies: %d in %d sentences, %d empty nodes.\n",
+					enhancedDeprels.total(), sentencesWithEnhanced, emptyNodes));
+			appendLabels(res, enhancedDeprels, enhancedLabels);
+		}
+		return res.toString();
+	}
+
+	private static void appendHistogram(StringBuilder res, IntHistogram counts)
+	{
+		for (int key = 0; key < counts.size(); key++)
+			if (counts.get(key) > 0)
+				res.append(String.format("\t%d\t%d\t%.2f%%\n", key, counts.get(key),
+						percent(counts.get(key), counts.total())));
+	}
+
+	/**
+	 * Append labels with their counts, most frequent first.
+	 */
+	private static void appendLabels(StringBuilder res, IntHistogram counts, LabelTable labels)
+	{
+		ArrayList<Integer> ids = new ArrayList<>();
+		for (int id = 0; id < counts.size(); id++)
+			if (counts.get(id) > 0) ids.add(id);
+		Collections.sort(ids, (a, b) -> counts.get(b) != counts.get(a)
+				? Long.compare(counts.get(b), counts.get(a))
+				: labels.get(a).compareTo(labels.get(b)));
+		for (int id : ids)
+			res.append(String.format("\t%s\t%d\t%.2f%%\n", labels.get(id),
+					counts.get(id), percent(counts.get(id), counts.total())));
+	}
+
+	private static double percent(long part, long all)
+	{
+		return all > 0 ? 100.0 * part / all : 0;
+	}
+}